@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Throughput of {@link TaskManager#getTaskStatus} under concurrent readers, for both kinds of
+ * backlog.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+public class BacklogBenchmark {
+    private static final int BACKLOG_SIZE = 1024;
+
+    @Param({"false", "true"})
+    public boolean mRingBuffer;
+
+    private TaskManager mTaskManager;
+    private int mFirstTaskId;
+
+    @Setup
+    public void setUp() {
+        mTaskManager = new TaskManager.Builder().setMaxBacklogSize(BACKLOG_SIZE)
+                .setRingBufferBacklogEnabled(mRingBuffer).setExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable runnable) {}
+                }).build();
+        for (int i = 0; i < BACKLOG_SIZE; i++) {
+            int taskId = mTaskManager.execute(new NoopTask("benchmark", null));
+            if (i == 0) {
+                mFirstTaskId = taskId;
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public TaskStatus getTaskStatus() {
+        return mTaskManager.getTaskStatus(mFirstTaskId + ThreadLocalRandom.current().nextInt(BACKLOG_SIZE));
+    }
+}
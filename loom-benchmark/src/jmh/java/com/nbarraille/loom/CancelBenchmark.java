@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link TaskManager#cancelTask} and {@link TaskManager#cancelTasks}, by number of live
+ * Tasks. The Executor never runs the Tasks, so that they all stay pending until cancelled.
+ *
+ * Cancelling consumes the Tasks, and one cancellation is too short to be timed on its own. So each
+ * iteration registers a batch of Tasks to cancel next to the live ones, then times a single
+ * invocation cancelling the whole batch: one Task per cancelTask call, and a name shared by
+ * {@link #GROUP_SIZE} Tasks per cancelTasks call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CancelBenchmark {
+    private static final int BATCH_SIZE = 10000;
+    private static final int GROUP_SIZE = 10;
+    private static final int GROUP_COUNT = BATCH_SIZE / GROUP_SIZE;
+
+    @Param({"100", "1000", "10000"})
+    public int mLiveTasks;
+
+    private final int[] mTaskIds = new int[BATCH_SIZE];
+    private final String[] mGroupNames = new String[GROUP_COUNT];
+    private TaskManager mTaskManager;
+
+    public CancelBenchmark() {
+        for (int i = 0; i < GROUP_COUNT; i++) {
+            mGroupNames[i] = "benchmark" + i;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        mTaskManager = new TaskManager.Builder().setMaxBacklogSize(mLiveTasks + BATCH_SIZE)
+                .setExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable runnable) {}
+                }).build();
+        for (int i = 0; i < mLiveTasks; i++) {
+            mTaskManager.execute(new NoopTask("other", null));
+        }
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            mTaskIds[i] = mTaskManager.execute(new NoopTask(mGroupNames[i % GROUP_COUNT], null));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void cancelTask() {
+        for (int taskId : mTaskIds) {
+            mTaskManager.cancelTask(taskId);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GROUP_COUNT)
+    public void cancelTasks() {
+        for (String name : mGroupNames) {
+            mTaskManager.cancelTasks(name);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Throughput of {@link TaskManager#execute}, from submission to completion, by number of worker
+ * threads. Tasks are submitted in batches, each batch being waited for, so that the queue of the
+ * Executor does not grow without bounds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+public class ExecuteBenchmark {
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"1", "2", "8"})
+    public int mThreads;
+
+    private ExecutorService mExecutor;
+    private TaskManager mTaskManager;
+
+    @Setup
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(mThreads);
+        mTaskManager = new TaskManager.Builder().setExecutor(mExecutor).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void execute() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            mTaskManager.execute(new NoopTask("benchmark", latch));
+        }
+        latch.await();
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A cancellable Task doing nothing, counting down a latch if it has one.
+ */
+class NoopTask extends Task {
+    private final String mName;
+    private final CountDownLatch mLatch;
+
+    NoopTask(String name, CountDownLatch latch) {
+        mName = name;
+        mLatch = latch;
+    }
+
+    @Override
+    protected String name() {
+        return mName;
+    }
+
+    @Override
+    protected boolean isCancellable() {
+        return true;
+    }
+
+    @Override
+    protected void runTask() throws Exception {
+        if (mLatch != null) {
+            mLatch.countDown();
+        }
+    }
+}
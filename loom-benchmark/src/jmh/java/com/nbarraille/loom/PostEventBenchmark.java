@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import com.nbarraille.loom.events.SuccessEvent;
+import com.nbarraille.loom.listeners.GenericBackgroundListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of posting an event to the listeners, by number of registered listeners. Either all of
+ * them listen to the Task posting the event, or only one of them does and the others listen to
+ * other Tasks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PostEventBenchmark {
+    @Param({"1", "10", "100", "1000"})
+    public int mListeners;
+
+    @Param({"true", "false"})
+    public boolean mAllListenToTask;
+
+    private TaskManager mTaskManager;
+    private Task mTask;
+    private SuccessEvent mEvent;
+    private int mDelivered; // Keeps the deliveries observable
+
+    private class Listener extends GenericBackgroundListener {
+        private final String mTaskName;
+
+        Listener(String taskName) {
+            mTaskName = taskName;
+        }
+
+        @Override
+        public String taskName() {
+            return mTaskName;
+        }
+
+        @Override
+        public void onSuccess(SuccessEvent event) {
+            mDelivered++;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newSingleThreadExecutor()).build();
+        mTask = new NoopTask("benchmark", null);
+        mEvent = new SuccessEvent();
+        for (int i = 0; i < mListeners; i++) {
+            String taskName = mAllListenToTask || i == 0 ? "benchmark" : "other" + i;
+            mTaskManager.registerListener(new Listener(taskName));
+        }
+    }
+
+    @Benchmark
+    public int postEvent() {
+        mTaskManager.postEvent(mTask, mEvent);
+        return mDelivered;
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * JVM shim of the Android SystemClock.
+ */
+public final class SystemClock {
+    public static long currentThreadTimeMillis() {
+        return ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() / 1000000;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.support.v4.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * JVM shim of the support LruCache, with the same structure: an access ordered LinkedHashMap
+ * guarded by the cache's monitor.
+ */
+public class LruCache<K, V> {
+    private final LinkedHashMap<K, V> mMap;
+    private final int mMaxSize;
+
+    public LruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+        mMap = new LinkedHashMap<>(0, 0.75f, true);
+    }
+
+    public final synchronized V get(K key) {
+        return mMap.get(key);
+    }
+
+    public final synchronized V put(K key, V value) {
+        V previous = mMap.put(key, value);
+        while (mMap.size() > mMaxSize) {
+            Map.Entry<K, V> eldest = mMap.entrySet().iterator().next();
+            mMap.remove(eldest.getKey());
+        }
+        return previous;
+    }
+
+    public final synchronized V remove(K key) {
+        return mMap.remove(key);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread pool growing and shrinking its number of workers with the workload.
+ *
+ * Every adjustment interval, the pool looks at the tasks that started since the previous one. If
+ * they waited in the queue, it grows for the fraction of the time its workers spent blocked rather
+ * than running on a core: <code>cores / (1 - blocked)</code> workers keep all the cores busy. If no
+ * task could start at all while some are queued, the workers are all stuck, and it grows by at
+ * least one.
+ *
+ * The pool is adjusted when tasks are submitted or start, and every interval by a watchdog thread
+ * while tasks are queued, as neither happens while all the workers are blocked and nothing new is
+ * submitted.
+ *
+ * The core pool size stays at the minimum, it is only raised for the time needed to start the new
+ * workers. The workers above it exit once they have been idle for the idle timeout, so that the
+ * pool shrinks back without having to be adjusted.
+ */
+class AdaptiveExecutor extends ThreadPoolExecutor {
+    private static final long ADJUST_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MIN_QUEUE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1); // Below this, tasks did not really wait
+    private static final double MAX_BLOCKED_FRACTION = 0.95;
+
+    private final int mMinThreads;
+    private final int mMaxThreads;
+    private final int mCores;
+    // The totals of the tasks that started since the last adjustment
+    private final AtomicLong mStarted = new AtomicLong();
+    private final AtomicLong mQueueWaitNanos = new AtomicLong();
+    private final AtomicLong mRunNanos = new AtomicLong();
+    private final AtomicLong mCpuMillis = new AtomicLong();
+    private final AtomicLong mNextAdjustNanos;
+    private volatile double mBlockedFraction = 0; // The fraction of the time the workers were blocked, as last measured
+    private final AtomicBoolean mIsWatching = new AtomicBoolean(false); // Whether the watchdog is running
+
+    AdaptiveExecutor(int minThreads, int maxThreads, long idleTimeoutMs) {
+        super(minThreads, maxThreads, idleTimeoutMs, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerFactory());
+        if (minThreads < 1 || maxThreads < minThreads) {
+            throw new IllegalArgumentException("Invalid pool size: " + minThreads + "-" + maxThreads);
+        }
+        mMinThreads = minThreads;
+        mMaxThreads = maxThreads;
+        mCores = Runtime.getRuntime().availableProcessors();
+        mNextAdjustNanos = new AtomicLong(System.nanoTime() + ADJUST_INTERVAL_NANOS);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        TimedRunnable runnable = new TimedRunnable(command);
+        super.execute(runnable);
+        maybeAdjust(runnable.mEnqueueTimeNanos);
+        if (!getQueue().isEmpty() && mIsWatching.compareAndSet(false, true)) {
+            Thread watchdog = new Thread(new Watchdog(), "Loom adaptive pool");
+            watchdog.setDaemon(true);
+            watchdog.start();
+        }
+    }
+
+    /**
+     * Adjusts the pool every interval while tasks are queued, then exits.
+     */
+    private class Watchdog implements Runnable {
+        @Override
+        public void run() {
+            do {
+                while (!getQueue().isEmpty() && !isShutdown()) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(ADJUST_INTERVAL_NANOS);
+                    } catch (InterruptedException e) {
+                        mIsWatching.set(false);
+                        return;
+                    }
+                    maybeAdjust(System.nanoTime());
+                }
+                mIsWatching.set(false);
+                // The tasks queued since the check did not start another watchdog, as this one was running
+            } while (!getQueue().isEmpty() && !isShutdown() && mIsWatching.compareAndSet(false, true));
+        }
+    }
+
+    /**
+     * Records how long a task waited in the queue, then how long it ran and how much of that it
+     * spent on a core.
+     */
+    private class TimedRunnable implements Runnable {
+        private final Runnable mRunnable;
+        private final long mEnqueueTimeNanos;
+
+        TimedRunnable(Runnable runnable) {
+            mRunnable = runnable;
+            mEnqueueTimeNanos = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            long startTimeNanos = System.nanoTime();
+            mStarted.incrementAndGet();
+            mQueueWaitNanos.addAndGet(startTimeNanos - mEnqueueTimeNanos);
+            maybeAdjust(startTimeNanos);
+            // The thread time only has a millisecond precision, but the error averages out over the tasks
+            long startCpuMillis = SystemClock.currentThreadTimeMillis();
+            try {
+                mRunnable.run();
+            } finally {
+                mCpuMillis.addAndGet(SystemClock.currentThreadTimeMillis() - startCpuMillis);
+                mRunNanos.addAndGet(System.nanoTime() - startTimeNanos);
+            }
+        }
+    }
+
+    private void maybeAdjust(long nowNanos) {
+        long nextAdjustNanos = mNextAdjustNanos.get();
+        if (nowNanos - nextAdjustNanos < 0
+                || !mNextAdjustNanos.compareAndSet(nextAdjustNanos, nowNanos + ADJUST_INTERVAL_NANOS)) {
+            return;
+        }
+        long started = mStarted.getAndSet(0);
+        long queueWaitNanos = mQueueWaitNanos.getAndSet(0);
+        long runNanos = mRunNanos.getAndSet(0);
+        long cpuMillis = mCpuMillis.getAndSet(0);
+        boolean waited;
+        if (started > 0) {
+            waited = queueWaitNanos / started >= MIN_QUEUE_WAIT_NANOS;
+        } else {
+            // No task could start, the queue tells whether the workers are all stuck
+            TimedRunnable oldest = (TimedRunnable) getQueue().peek();
+            waited = oldest != null && nowNanos - oldest.mEnqueueTimeNanos >= MIN_QUEUE_WAIT_NANOS;
+        }
+        if (!waited) {
+            return;
+        }
+        if (runNanos > 0) {
+            double blocked = 1 - (double) TimeUnit.MILLISECONDS.toNanos(cpuMillis) / runNanos;
+            mBlockedFraction = Math.max(0, Math.min(MAX_BLOCKED_FRACTION, blocked));
+        }
+        int poolSize = getPoolSize();
+        int target = (int) Math.ceil(mCores / (1 - mBlockedFraction));
+        if (started == 0) {
+            target = Math.max(target, poolSize + 1);
+        }
+        target = Math.min(mMaxThreads, target);
+        if (target > poolSize) {
+            // Raising the core pool size starts workers for the queued tasks
+            setCorePoolSize(target);
+            setCorePoolSize(mMinThreads);
+        }
+    }
+
+    private static class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "Loom #" + mCount.incrementAndGet());
+        }
+    }
+}
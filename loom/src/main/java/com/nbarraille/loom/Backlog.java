@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The backlog of a <code>TaskManager</code>, keeping track of the {@link TaskStatus} of the most
+ * recent Tasks.
+ */
+abstract class Backlog {
+    /**
+     * @param taskId the ID of the Task
+     * @return the status of the Task, or null if it is not in the backlog
+     */
+    @Nullable
+    abstract TaskStatus get(int taskId);
+
+    /**
+     * Adds the status of a new Task to the backlog, evicting an older one if it is full.
+     * @param status the status of the Task
+     */
+    abstract void put(@NonNull TaskStatus status);
+
+    /**
+     * Adds the statuses of a batch of new Tasks to the backlog.
+     * @param statuses the statuses of the Tasks
+     */
+    void putAll(@NonNull TaskStatus[] statuses) {
+        for (TaskStatus status : statuses) {
+            put(status);
+        }
+    }
+
+    /**
+     * @param maxSize    the maximum number of Tasks to keep track of
+     * @param ringBuffer whether to build a ring buffer backlog rather than a LRU one
+     * @return a new backlog
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    static Backlog create(int maxSize, boolean ringBuffer) {
+        return ringBuffer ? new RingBacklog(maxSize) : new LruBacklog(maxSize);
+    }
+
+    /**
+     * A backlog evicting the least recently accessed Tasks first.
+     */
+    private static class LruBacklog extends Backlog {
+        private final LruCache<Integer, TaskStatus> mStatuses;
+
+        LruBacklog(int maxSize) {
+            mStatuses = new LruCache<>(maxSize);
+        }
+
+        @Nullable
+        @Override
+        TaskStatus get(int taskId) {
+            return mStatuses.get(taskId);
+        }
+
+        @Override
+        void put(@NonNull TaskStatus status) {
+            mStatuses.put(status.mTaskId, status);
+        }
+
+        @Override
+        void putAll(@NonNull TaskStatus[] statuses) {
+            // The LruCache locks on itself, holding its monitor makes the whole batch take it once
+            synchronized (mStatuses) {
+                super.putAll(statuses);
+            }
+        }
+    }
+
+    /**
+     * A backlog of fixed capacity, indexed by the sequential task IDs, evicting the oldest Tasks
+     * first. Each Task has its own slot, overwriting the one of the Task executed
+     * <code>maxSize</code> Tasks before it, so that reads and writes never lock nor allocate.
+     * A slot is never overwritten with an older Task, which a writer that got its ID earlier but
+     * stores it later would otherwise do.
+     */
+    private static class RingBacklog extends Backlog {
+        private final AtomicReferenceArray<TaskStatus> mStatuses;
+
+        RingBacklog(int maxSize) {
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("maxSize <= 0");
+            }
+            mStatuses = new AtomicReferenceArray<>(maxSize);
+        }
+
+        private int indexOf(int taskId) {
+            return (taskId & Integer.MAX_VALUE) % mStatuses.length();
+        }
+
+        @Nullable
+        @Override
+        TaskStatus get(int taskId) {
+            TaskStatus status = mStatuses.get(indexOf(taskId));
+            return status != null && status.mTaskId == taskId ? status : null;
+        }
+
+        @Override
+        void put(@NonNull TaskStatus status) {
+            int index = indexOf(status.mTaskId);
+            while (true) {
+                TaskStatus current = mStatuses.get(index);
+                // Comparing the difference rather than the IDs, as they can overflow
+                if (current != null && current.mTaskId - status.mTaskId > 0) {
+                    return;
+                }
+                if (mStatuses.compareAndSet(index, current, status)) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -18,13 +18,24 @@ package com.nbarraille.loom;
 /**
  * The base class for all Events sent by <code>Task</code>s
  */
-public abstract class Event {
+public abstract class Event implements Cloneable {
     private String mTaskName;
 
     void setTaskName(String taskName) {
         mTaskName = taskName;
     }
 
+    /**
+     * @return a shallow copy of the Event, to deliver it again without sharing the instance
+     */
+    Event copy() {
+        try {
+            return (Event) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
     /**
      * @return the name of the Task this event is for
      */
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The state of one execution of a {@link TaskGraph}. The graph is aborted as soon as its status
+ * leaves STARTED, after which none of its Tasks is released anymore.
+ */
+class GraphExecution {
+    final String mName;
+    final int mId;
+    final TaskStatus mStatus; // Kept here, as the backlog could evict it while the graph runs
+    final Task[] mTasks;
+    final int[] mTaskIds;
+    final int[][] mDependents; // The indices of the Tasks depending on each Task
+    final int[] mRoots; // The indices of the Tasks without dependencies
+    private final AtomicIntegerArray mPendingDependencies; // The number of dependencies each Task still waits for
+    private final AtomicIntegerArray mProgress;
+    private final AtomicInteger mTotalProgress = new AtomicInteger();
+    private final AtomicInteger mLastProgress = new AtomicInteger(-1);
+    private final AtomicInteger mRemaining;
+
+    GraphExecution(@NonNull TaskGraph graph, int id, @NonNull TaskStatus status) {
+        mName = graph.name();
+        mId = id;
+        mStatus = status;
+        int count = graph.mTasks.size();
+        mTasks = graph.mTasks.toArray(new Task[count]);
+        mTaskIds = new int[count];
+        mPendingDependencies = new AtomicIntegerArray(count);
+        mProgress = new AtomicIntegerArray(count);
+        mRemaining = new AtomicInteger(count);
+
+        int[] dependentCounts = new int[count];
+        int rootCount = 0;
+        for (int i = 0; i < count; i++) {
+            int[] dependencies = graph.mDependencies.get(i);
+            mPendingDependencies.set(i, dependencies.length);
+            if (dependencies.length == 0) {
+                rootCount++;
+            }
+            for (int dependency : dependencies) {
+                dependentCounts[dependency]++;
+            }
+        }
+        mDependents = new int[count][];
+        mRoots = new int[rootCount];
+        rootCount = 0;
+        for (int i = 0; i < count; i++) {
+            mDependents[i] = new int[dependentCounts[i]];
+            dependentCounts[i] = 0;
+            if (graph.mDependencies.get(i).length == 0) {
+                mRoots[rootCount++] = i;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            for (int dependency : graph.mDependencies.get(i)) {
+                mDependents[dependency][dependentCounts[dependency]++] = i;
+            }
+        }
+    }
+
+    boolean isAborted() {
+        return !mStatus.isStarted();
+    }
+
+    /**
+     * @return whether the Task is still waiting for some of its dependencies
+     */
+    boolean isWaiting(int node) {
+        return mPendingDependencies.get(node) > 0;
+    }
+
+    /**
+     * @return whether that dependency was the last one the Task was waiting for
+     */
+    boolean onDependencyDone(int node) {
+        return mPendingDependencies.decrementAndGet(node) == 0;
+    }
+
+    /**
+     * @return whether all the Tasks of the graph have succeeded
+     */
+    boolean onSucceeded() {
+        return mRemaining.decrementAndGet() == 0;
+    }
+
+    /**
+     * Records the progress of one of the Tasks.
+     * @return the new progress of the graph, or -1 if it did not increase
+     */
+    int onProgress(int node, int progress) {
+        int total = mTotalProgress.addAndGet(progress - mProgress.getAndSet(node, progress));
+        int aggregated = mTasks.length > 0 ? total / mTasks.length : 100;
+        while (true) {
+            int last = mLastProgress.get();
+            if (aggregated <= last) {
+                return -1;
+            }
+            if (mLastProgress.compareAndSet(last, aggregated)) {
+                return aggregated;
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations, in nanoseconds. Each power of two is split into 8 buckets,
+ * so that the percentiles it gives are within 12.5% of the actual values, with a fixed memory
+ * footprint whatever the durations recorded.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+
+    void record(long nanos) {
+        mCounts.incrementAndGet(indexOf(Math.max(nanos, 0)));
+    }
+
+    /**
+     * @return a copy of the count of each bucket
+     */
+    long[] getCounts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return counts;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the highest value recorded in the bucket with the given index
+     */
+    static long upperBoundOf(int index) {
+        if (index >= BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        int next = index + 1;
+        int shift = next / SUB_BUCKETS - 1;
+        if (shift < 0) {
+            return index;
+        }
+        return ((long) (SUB_BUCKETS + next % SUB_BUCKETS) << shift) - 1;
+    }
+}
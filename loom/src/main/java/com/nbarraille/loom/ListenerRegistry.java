@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.nbarraille.loom.events.ProgressEvent;
+import com.nbarraille.loom.listeners.ProgressValueListener;
+import com.nbarraille.loom.listeners.RoutedListener;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The routing table of the {@link RoutedListener}s registered with a <code>TaskManager</code>.
+ * Listeners are indexed by their task name, so that posting an event only costs as much as the
+ * number of listeners interested in it, no matter how many listeners are registered in total.
+ */
+class ListenerRegistry {
+    private static final int NO_PROGRESS = -1;
+
+    private final ConcurrentMap<String, Route> mRoutesByTaskName;
+    private final Handler mUiHandler;
+    private final boolean mIsLoggingEnabled;
+
+    /**
+     * A registration of a listener. It stays inactive once the listener has been unregistered, so
+     * that events already queued on the UI Thread are not delivered anymore.
+     */
+    private static class Subscription {
+        final RoutedListener<?, ?, ?> mListener;
+        @Nullable final ProgressValueListener mValueListener;
+        final boolean mIsUiThread;
+        volatile boolean mIsActive = true;
+
+        Subscription(RoutedListener<?, ?, ?> listener) {
+            mListener = listener;
+            mValueListener = listener instanceof ProgressValueListener ? (ProgressValueListener) listener : null;
+            mIsUiThread = listener.isUiThreadListener();
+        }
+    }
+
+    /**
+     * The subscriptions for one task name. This is never modified, but replaced as a whole when a
+     * listener is registered or unregistered, so that it can be read without locking or allocating.
+     */
+    private static class Route {
+        final Subscription[] mSubscriptions;
+        final boolean mNeedsProgressEvent; // Whether some listeners receive progress as ProgressEvents
+        final boolean mHasValueListeners; // Whether some listeners receive progress as values
+
+        Route(Subscription[] subscriptions) {
+            mSubscriptions = subscriptions;
+            boolean needsProgressEvent = false;
+            boolean hasValueListeners = false;
+            for (Subscription subscription : subscriptions) {
+                if (subscription.mValueListener != null) {
+                    hasValueListeners = true;
+                } else {
+                    needsProgressEvent = true;
+                }
+            }
+            mNeedsProgressEvent = needsProgressEvent;
+            mHasValueListeners = hasValueListeners;
+        }
+    }
+
+    /**
+     * The latest progress value of a Task execution waiting to be delivered to the UI Thread
+     * {@link ProgressValueListener}s. It is posted on the UI Thread at most once at a time, and
+     * reused for the whole execution, so that delivering progress values does not allocate.
+     */
+    class ProgressValueSlot implements Runnable {
+        final String mTaskName;
+        final int mTaskId;
+        final AtomicInteger mProgress = new AtomicInteger(NO_PROGRESS);
+
+        ProgressValueSlot(String taskName, int taskId) {
+            mTaskName = taskName;
+            mTaskId = taskId;
+        }
+
+        @Override
+        public void run() {
+            int progress = mProgress.getAndSet(NO_PROGRESS);
+            Route route = mRoutesByTaskName.get(mTaskName);
+            if (progress == NO_PROGRESS || route == null) {
+                return;
+            }
+            for (Subscription subscription : route.mSubscriptions) {
+                if (subscription.mValueListener != null && subscription.mIsUiThread) {
+                    deliverValue(subscription, mTaskId, progress);
+                }
+            }
+        }
+    }
+
+    ListenerRegistry(boolean loggingEnabled) {
+        mRoutesByTaskName = new ConcurrentHashMap<>();
+        mUiHandler = new Handler(Looper.getMainLooper());
+        mIsLoggingEnabled = loggingEnabled;
+    }
+
+    /**
+     * Adds a listener to the routing table. Registering the same listener twice has no effect.
+     * @param listener the listener
+     */
+    synchronized void register(@NonNull RoutedListener<?, ?, ?> listener) {
+        String taskName = listener.taskName();
+        Route route = mRoutesByTaskName.get(taskName);
+        Subscription[] subscriptions = route != null ? route.mSubscriptions : new Subscription[0];
+        if (indexOf(subscriptions, listener) >= 0) {
+            return;
+        }
+        Subscription[] updated = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+        updated[subscriptions.length] = new Subscription(listener);
+        mRoutesByTaskName.put(taskName, new Route(updated));
+    }
+
+    /**
+     * Removes a listener from the routing table. It will not receive any more events, including the
+     * ones that are already waiting to be delivered on the UI Thread.
+     * @param listener the listener
+     */
+    synchronized void unregister(@NonNull RoutedListener<?, ?, ?> listener) {
+        String taskName = listener.taskName();
+        Route route = mRoutesByTaskName.get(taskName);
+        if (route == null) {
+            return;
+        }
+        Subscription[] subscriptions = route.mSubscriptions;
+        int index = indexOf(subscriptions, listener);
+        if (index < 0) {
+            return;
+        }
+        subscriptions[index].mIsActive = false;
+        if (subscriptions.length == 1) {
+            mRoutesByTaskName.remove(taskName);
+            return;
+        }
+        Subscription[] updated = new Subscription[subscriptions.length - 1];
+        System.arraycopy(subscriptions, 0, updated, 0, index);
+        System.arraycopy(subscriptions, index + 1, updated, index, subscriptions.length - index - 1);
+        mRoutesByTaskName.put(taskName, new Route(updated));
+    }
+
+    /**
+     * Delivers an event to all the listeners registered for the task that sent it.
+     * @param event the event, with its task name already set
+     */
+    void post(@NonNull Event event) {
+        post(event, null);
+    }
+
+    /**
+     * Delivers an event to all the listeners registered for the task that sent it.
+     * {@link ProgressEvent}s are not delivered to the {@link ProgressValueListener}s, they receive
+     * the progress through {@link #postProgressValue} instead.
+     *
+     * If a UI slot is given, the event replaces the one already waiting in it, and a single delivery
+     * to the UI Thread listeners is scheduled while the slot is not empty. The UI Thread listeners
+     * will then only receive the latest event put in the slot.
+     *
+     * @param event  the event, with its task name already set
+     * @param uiSlot the slot holding the event waiting to be delivered on the UI Thread, or null to
+     *               deliver every event
+     */
+    void post(@NonNull final Event event, @Nullable final AtomicReference<Event> uiSlot) {
+        Route route = getRoute(event.getTaskName());
+        if (route == null) {
+            return;
+        }
+
+        boolean isProgress = event instanceof ProgressEvent;
+        boolean isUiThread = Looper.myLooper() == Looper.getMainLooper();
+        boolean hasUiListeners = false;
+        for (final Subscription subscription : route.mSubscriptions) {
+            if (isProgress && subscription.mValueListener != null) {
+                continue;
+            }
+            if (!subscription.mIsUiThread || isUiThread) {
+                deliver(subscription, event);
+            } else if (uiSlot != null) {
+                hasUiListeners = true;
+            } else {
+                mUiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(subscription, event);
+                    }
+                });
+            }
+        }
+
+        if (hasUiListeners && uiSlot.getAndSet(event) == null) {
+            mUiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Event latest = uiSlot.getAndSet(null);
+                    if (latest != null) {
+                        deliverOnUiThread(latest);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Delivers the progress of a Task to the {@link ProgressValueListener}s registered for it.
+     * This must be called from the thread running the Task, or holding the monitor of its
+     * {@link ProgressCoalescer}.
+     *
+     * @param task     the Task
+     * @param progress the progress
+     * @return whether some listeners registered for the task need a {@link ProgressEvent} too
+     */
+    boolean postProgressValue(@NonNull Task task, int progress) {
+        Route route = getRoute(task.name());
+        if (route == null) {
+            return false;
+        }
+        if (!route.mHasValueListeners) {
+            return route.mNeedsProgressEvent;
+        }
+
+        boolean isUiThread = Looper.myLooper() == Looper.getMainLooper();
+        boolean hasUiListeners = false;
+        for (Subscription subscription : route.mSubscriptions) {
+            if (subscription.mValueListener == null) {
+                continue;
+            }
+            if (!subscription.mIsUiThread || isUiThread) {
+                deliverValue(subscription, task.getId(), progress);
+            } else {
+                hasUiListeners = true;
+            }
+        }
+
+        if (hasUiListeners) {
+            ProgressValueSlot slot = task.mProgressValueSlot;
+            if (slot == null) {
+                slot = new ProgressValueSlot(task.name(), task.getId());
+                task.mProgressValueSlot = slot;
+            }
+            if (slot.mProgress.getAndSet(progress) == NO_PROGRESS) {
+                mUiHandler.post(slot);
+            }
+        }
+        return route.mNeedsProgressEvent;
+    }
+
+    @Nullable
+    private Route getRoute(@Nullable String taskName) {
+        return taskName != null ? mRoutesByTaskName.get(taskName) : null;
+    }
+
+    private void deliverOnUiThread(Event event) {
+        Route route = getRoute(event.getTaskName());
+        if (route == null) {
+            return;
+        }
+        boolean isProgress = event instanceof ProgressEvent;
+        for (Subscription subscription : route.mSubscriptions) {
+            if (subscription.mIsUiThread && !(isProgress && subscription.mValueListener != null)) {
+                deliver(subscription, event);
+            }
+        }
+    }
+
+    private void deliver(Subscription subscription, Event event) {
+        if (!subscription.mIsActive) {
+            return;
+        }
+        try {
+            subscription.mListener.dispatch(event);
+        } catch (RuntimeException e) {
+            if (mIsLoggingEnabled) {
+                Log.e(Loom.LOG_TAG, "Error while dispatching event to listener: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void deliverValue(Subscription subscription, int taskId, int progress) {
+        if (!subscription.mIsActive || subscription.mValueListener == null) {
+            return;
+        }
+        try {
+            subscription.mValueListener.onProgressValue(taskId, progress);
+        } catch (RuntimeException e) {
+            if (mIsLoggingEnabled) {
+                Log.e(Loom.LOG_TAG, "Error while dispatching progress to listener: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static int indexOf(Subscription[] subscriptions, RoutedListener<?, ?, ?> listener) {
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i].mListener == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -21,6 +21,9 @@ import android.support.annotation.Nullable;
 
 import com.nbarraille.loom.listeners.LoomListener;
 
+import java.util.Collection;
+import java.util.Map;
+
 /**
  * <code>Loom</code> let's you run background tasks and manage them in a very simple, yet customizable, way.
  *
@@ -108,6 +111,18 @@ public abstract class Loom {
         return getDefaultTaskManager().getTaskStatus(taskId);
     }
 
+    /**
+     * Retrieves the metrics of each task name, if they are enabled in the configuration.
+     * @see LoomConfig#setMetricsEnabled
+     *
+     * @return the metrics, by task name
+     */
+    @SuppressWarnings("unused")
+    @NonNull
+    public static Map<String, TaskMetricsSnapshot> getMetrics() {
+        return getDefaultTaskManager().getMetrics();
+    }
+
     /**
      * Executes a Task in the background. The Task will be scheduled to run on the default
      * Loom <code>Executor</code>, and will start as soon as the Executor is ready.
@@ -122,6 +137,62 @@ public abstract class Loom {
         return getDefaultTaskManager().execute(task);
     }
 
+    /**
+     * Executes a Task in the background after a delay.
+     *
+     * @param task    the Task to execute
+     * @param delayMs the delay before the Task is handed to the Executor, in milliseconds
+     * @return the ID of the Task. You can use this ID to retrieve the status of the Task, or to
+     * cancel it.
+     */
+    @SuppressWarnings("unused")
+    public static int executeDelayed(@NonNull Task task, long delayMs) {
+        return getDefaultTaskManager().executeDelayed(task, delayMs);
+    }
+
+    /**
+     * Executes a Task in the background periodically, until it is cancelled. Each run has an ID
+     * and a status of its own.
+     *
+     * @param task           the Task to execute
+     * @param initialDelayMs the delay before the first run, in milliseconds
+     * @param periodMs       the period of the runs, in milliseconds
+     * @param policy         how the runs are spaced
+     * @return the ID of the series. You can use this ID to retrieve the status of the series, or to
+     * cancel it.
+     */
+    @SuppressWarnings("unused")
+    public static int executePeriodic(@NonNull Task task, long initialDelayMs, long periodMs,
+                                      @TaskManager.SchedulePolicy int policy) {
+        return getDefaultTaskManager().executePeriodic(task, initialDelayMs, periodMs, policy);
+    }
+
+    /**
+     * Executes a {@link TaskGraph} in the background, each of its Tasks being scheduled as soon as
+     * all its dependencies have succeeded.
+     *
+     * @param graph the graph to execute
+     * @return the ID of the graph. You can use this ID to retrieve the aggregated status of the
+     * graph, or to cancel it.
+     */
+    @SuppressWarnings("unused")
+    public static int executeGraph(@NonNull TaskGraph graph) {
+        return getDefaultTaskManager().executeGraph(graph);
+    }
+
+    /**
+     * Executes a batch of Tasks in the background, registering them all at once, which is cheaper
+     * than executing them one by one.
+     *
+     * @param tasks the Tasks to execute
+     * @return the IDs of the Tasks, in the order of the collection
+     */
+    @SuppressWarnings("unused")
+    @NonNull
+    public static int[] executeAll(@NonNull Collection<? extends Task> tasks) {
+        return getDefaultTaskManager().executeAll(tasks);
+    }
+
     /**
      * Registers a listener with Loom.
      * The listener will receive all the events sent by tasks with a {@link Task#name()} matching
@@ -17,6 +17,10 @@ package com.nbarraille.loom;
 
 import com.nbarraille.loom.listeners.LoomListener;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
 
 import de.greenrobot.event.EventBus;
@@ -26,10 +30,35 @@ import de.greenrobot.event.EventBus;
  */
 public class LoomConfig {
     private final static int DEFAULT_MAX_BACKLOG_SIZE = 1024;
+    private final static long DEFAULT_MIN_PROGRESS_INTERVAL = 16; // One frame at 60fps
+    private final static long DEFAULT_PRIORITY_AGING_INTERVAL = 1000;
+    private final static long DEFAULT_RESULT_CACHE_TTL = 60 * 1000;
+    private final static int DEFAULT_ADAPTIVE_POOL_MIN_THREADS = 2;
+    private final static int DEFAULT_ADAPTIVE_POOL_MAX_THREADS = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+    private final static long DEFAULT_ADAPTIVE_POOL_IDLE_TIMEOUT = 30 * 1000;
     protected Executor mExecutor;
     protected EventBus mEventBus;
     protected boolean mLoggingEnabled = false;
     protected int mMaxBacklogSize = DEFAULT_MAX_BACKLOG_SIZE;
+    protected boolean mRingBufferBacklogEnabled = false;
+    protected boolean mProgressCoalescingEnabled = false;
+    protected long mMinProgressInterval = DEFAULT_MIN_PROGRESS_INTERVAL;
+    protected boolean mPrioritySchedulingEnabled = false;
+    protected boolean mDeadlineSchedulingEnabled = false;
+    protected long mPriorityAgingInterval = DEFAULT_PRIORITY_AGING_INTERVAL;
+    protected int mResultCacheSize = 0;
+    protected long mResultCacheTtl = DEFAULT_RESULT_CACHE_TTL;
+    protected boolean mStaleWhileRevalidateEnabled = false;
+    protected boolean mVirtualThreadsEnabled = false;
+    protected boolean mAdaptivePoolEnabled = false;
+    protected int mAdaptivePoolMinThreads = DEFAULT_ADAPTIVE_POOL_MIN_THREADS;
+    protected int mAdaptivePoolMaxThreads = DEFAULT_ADAPTIVE_POOL_MAX_THREADS;
+    protected long mAdaptivePoolIdleTimeout = DEFAULT_ADAPTIVE_POOL_IDLE_TIMEOUT;
+    protected boolean mMetricsEnabled = false;
+    protected List<TaskInterceptor> mInterceptors = new ArrayList<>();
+    protected int mMaxPendingTasks = 0;
+    protected int mBackPressurePolicy = TaskManager.FAIL_FAST;
+    protected Map<String, Integer> mMaxConcurrentTasks = new HashMap<>();
 
     /**
      * Sets the {@link Executor} for the Tasks to run on.
@@ -45,6 +74,8 @@ public class LoomConfig {
     /**
      * Sets the {@link EventBus} on which the Success, Failure and Progress events will be send
      * back to the Listeners.
+     * Listeners extending {@link com.nbarraille.loom.listeners.RoutedListener} are notified
+     * directly by the TaskManager, the bus is only used for the other listeners.
      *
      * @param eventBus the bus
      * @return the same LoomConfig object
@@ -68,6 +99,21 @@ public class LoomConfig {
         return this;
     }
 
+    /**
+     * Sets whether or not the backlog is a ring buffer.
+     * By default, the backlog evicts the least recently accessed Tasks first, but every access to it
+     * takes a lock. A ring buffer backlog keeps exactly the <code>maxBacklogSize</code> most recently
+     * executed Tasks, and can be read and updated without locking.
+     * This is false by default.
+     *
+     * @param enabled whether or not the backlog is a ring buffer
+     * @return the same LoomConfig object
+     */
+    public LoomConfig setRingBufferBacklogEnabled(boolean enabled) {
+        mRingBufferBacklogEnabled = enabled;
+        return this;
+    }
+
     /**
      * Sets whether or not the TaskManager will log non-fatal errors or not.
      * This is false by default.
@@ -79,4 +125,244 @@ public class LoomConfig {
         mLoggingEnabled = enabled;
         return this;
     }
+
+    /**
+     * Sets whether or not the progress sent by Tasks is coalesced.
+     * When enabled, a progress repeating the previous one is dropped, progress is delivered at most
+     * once per {@link #setMinProgressInterval interval} for each Task, and listeners running on the
+     * UI Thread only receive the latest progress when the UI Thread gets to it.
+     * This is false by default.
+     *
+     * @param enabled whether or not progress coalescing is enabled
+     * @return the same LoomConfig object
+     */
+    public LoomConfig setProgressCoalescingEnabled(boolean enabled) {
+        mProgressCoalescingEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Sets the minimum interval between two progress deliveries of a Task, when progress
+     * coalescing is enabled. The latest progress held back during that interval is delivered
+     * with the next update, or before the Task finishes.
+     * This is configured to <code>16</code> milliseconds (one frame) by default.
+     *
+     * @param intervalMs the interval, in milliseconds
+     * @return the same LoomConfig object
+     */
+    public LoomConfig setMinProgressInterval(long intervalMs) {
+        mMinProgressInterval = intervalMs;
+        return this;
+    }
+
+    /**
+     * Sets whether or not Tasks are scheduled according to their {@link Task#priority()}.
+     * When enabled, the TaskManager keeps the pending Tasks in its own priority queue in front of
+     * the <code>Executor</code>, and Tasks with a higher priority run first. A Task waiting in the
+     * queue gains one priority level per {@link #setPriorityAgingInterval aging interval}, so that
+     * low priority Tasks cannot starve.
+     * This is false by default, Tasks are passed to the Executor in submission order.
+     *
+     * @param enabled whether or not priority scheduling is enabled
+     * @return the same LoomConfig object
+     */
+    public LoomConfig setPrioritySchedulingEnabled(boolean enabled) {
+        mPrioritySchedulingEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Sets whether or not Tasks are scheduled according to their {@link Task#deadline()}, earliest
+     * deadline first. Tasks without a deadline are considered due within one aging interval.
+     * Enabling this also enables priority scheduling, priorities being applied on top of deadlines.
+     * This is false by default.
+     *
+     * @param enabled whether or not deadline scheduling is enabled
+     * @return the same LoomConfig object
+     */
+    public LoomConfig setDeadlineSchedulingEnabled(boolean enabled) {
+        mDeadlineSchedulingEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Sets how long a Task has to wait in the queue to gain one priority level, when priority
+     * scheduling is enabled.
+     * This is configured to <code>1000</code> milliseconds by default.
+     *
+     * @param intervalMs the interval, in milliseconds
+     * @return the same LoomConfig object
+     */
+    public LoomConfig setPriorityAgingInterval(long intervalMs) {
+        mPriorityAgingInterval = intervalMs;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of results kept in the result cache. The results of the Tasks
+     * declaring a {@link Task#cacheKey()} are cached, and executing a Task whose key has a fresh
+     * result delivers the cached {@link com.nbarraille.loom.events.SuccessEvent} to the listeners
+     * without running it. The least recently used results are evicted first.
+     * This is <code>0</code> by default, which disables the cache.
+     *
+     * @param maxEntries the maximum number of cached results
+     * @return the same LoomConfig object
+     */
+    public LoomConfig setResultCacheSize(int maxEntries) {
+        mResultCacheSize = maxEntries;
+        return this;
+    }
+
+    /**
+     * Sets how long a cached result stays fresh. Stale results are not delivered, and the Task runs
+     * again, unless stale-while-revalidate is enabled.
+     * This is configured to <code>60000</code> milliseconds by default.
+     *
+     * @param ttlMs the time to live of the results, in milliseconds
+     * @return the same LoomConfig object
+     */
+    public LoomConfig setResultCacheTtl(long ttlMs) {
+        mResultCacheTtl = ttlMs;
+        return this;
+    }
+
+    /**
+     * Sets whether or not stale cached results are still delivered. When enabled, executing a Task
+     * whose key has a stale result delivers it right away, and runs the Task in the background to
+     * refresh it. Concurrent executions for the same key share the same refresh.
+     * This is false by default.
+     *
+     * @param enabled whether or not stale-while-revalidate is enabled
+     * @return the same LoomConfig object
+     */
+    public LoomConfig setStaleWhileRevalidateEnabled(boolean enabled) {
+        mStaleWhileRevalidateEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Sets whether or not the default <code>Executor</code> runs each Task on its own virtual
+     * thread, when running on a JVM that supports them (Java 21 and later). Blocking Tasks then do
+     * not hold up a thread of a fixed pool. This is ignored if an Executor is set, and on Android,
+     * where the default pool is used.
+     * This is false by default.
+     *
+     * @param enabled whether or not virtual threads are used when available
+     * @return the same LoomConfig object
+     */
+    public LoomConfig setVirtualThreadsEnabled(boolean enabled) {
+        mVirtualThreadsEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Sets whether or not the default <code>Executor</code> is a pool adapting its number of threads
+     * to the workload. When Tasks wait in its queue, it grows to keep all the cores busy, given how
+     * much of their time its threads spend blocked rather than running, and the threads it does
+     * not need anymore exit after the {@link #setAdaptivePoolIdleTimeout idle timeout}.
+     * This is ignored if an Executor is set, or if virtual threads are used.
+     * This is false by default, the default Executor being a fixed pool of 2 threads.
+     *
+     * @param enabled whether or not the default Executor is an adaptive pool
+     * @return the same LoomConfig object
+     */
+    public LoomConfig setAdaptivePoolEnabled(boolean enabled) {
+        mAdaptivePoolEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Sets the bounds of the number of threads of the adaptive pool.
+     * This is configured to <code>2</code> to <code>max(16, 4 * cores)</code> threads by default.
+     *
+     * @param minThreads the number of threads the pool keeps when idle, at least <code>1</code>
+     * @param maxThreads the maximum number of threads
+     * @return the same LoomConfig object
+     */
+    public LoomConfig setAdaptivePoolSize(int minThreads, int maxThreads) {
+        mAdaptivePoolMinThreads = minThreads;
+        mAdaptivePoolMaxThreads = maxThreads;
+        return this;
+    }
+
+    /**
+     * Sets how long a thread of the adaptive pool above the minimum stays idle before exiting.
+     * This is configured to <code>30000</code> milliseconds by default.
+     *
+     * @param timeoutMs the idle timeout, in milliseconds
+     * @return the same LoomConfig object
+     */
+    public LoomConfig setAdaptivePoolIdleTimeout(long timeoutMs) {
+        mAdaptivePoolIdleTimeout = timeoutMs;
+        return this;
+    }
+
+    /**
+     * Sets whether or not the TaskManager keeps metrics for each task name: how many Tasks were
+     * submitted, started, succeeded, failed and got cancelled, and how long they waited in the
+     * queue and ran for. They are updated without locking, and can be retrieved with
+     * {@link TaskManager#getMetrics()}.
+     * This is false by default.
+     *
+     * @param enabled whether or not metrics are enabled
+     * @return the same LoomConfig object
+     */
+    public LoomConfig setMetricsEnabled(boolean enabled) {
+        mMetricsEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Adds an interceptor, called around the execution of each Task and the posting of each event.
+     * Interceptors are called in the order they were added. When none is added, the TaskManager
+     * does not pay anything for them.
+     *
+     * @param interceptor the interceptor
+     * @return the same LoomConfig object
+     */
+    public LoomConfig addInterceptor(TaskInterceptor interceptor) {
+        mInterceptors.add(interceptor);
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of Tasks waiting for the <code>Executor</code>, and the policy applied
+     * to the Tasks executed beyond it:
+     * <ul>
+     *     <li>{@link TaskManager#BLOCK}: the calling thread waits until a pending Task starts. It
+     *     should not be one of the Executor's threads.</li>
+     *     <li>{@link TaskManager#RUN_ON_CALLER}: the new Task runs on the calling thread</li>
+     *     <li>{@link TaskManager#DROP_OLDEST}: the oldest pending Task is cancelled, even if it is
+     *     not cancellable, as it has not started</li>
+     *     <li>{@link TaskManager#FAIL_FAST}: the new Task does not run, and its FailureEvent is sent
+     *     right away</li>
+     * </ul>
+     * The Tasks released by the completion of others, queued with the same conflict key or
+     * depending on others in a {@link TaskGraph}, are not held back.
+     * This is <code>0</code> by default, which leaves the number of pending Tasks unbounded.
+     *
+     * @param maxPendingTasks the maximum number of pending Tasks
+     * @param policy          the policy applied to the Tasks executed beyond it
+     * @return the same LoomConfig object
+     */
+    public LoomConfig setMaxPendingTasks(int maxPendingTasks, @TaskManager.BackPressurePolicy int policy) {
+        mMaxPendingTasks = maxPendingTasks;
+        mBackPressurePolicy = policy;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of Tasks with the given name running at once, so that a flood of them
+     * cannot starve the other Tasks. The other ones wait in a queue of their own, in submission
+     * order, without holding a thread of the <code>Executor</code>, and still count as pending.
+     * Tasks are not limited by default.
+     *
+     * @param taskName   the name of the Tasks
+     * @param maxRunning the maximum number of them running at once, at least <code>1</code>
+     * @return the same LoomConfig object
+     */
+    public LoomConfig setMaxConcurrentTasks(String taskName, int maxRunning) {
+        mMaxConcurrentTasks.put(taskName, maxRunning);
+        return this;
+    }
 }
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A Task splitting its work into {@link Subtask}s that run in parallel, and joining their results.
+ *
+ * Override {@link #fork} to split the work, and {@link #join} to combine the results. The Subtasks
+ * are shared between the thread running this Task and helpers submitted to the
+ * <code>TaskManager</code>'s <code>Executor</code>, each of them taking the next Subtask as soon as
+ * it is done with the previous one. Since the thread running this Task works on the Subtasks too,
+ * they complete even when the Executor has no thread to spare for the helpers.
+ *
+ * The progress of each Subtask, sent with {@link Subtask#postProgress}, is combined into the
+ * progress of this Task, as the average progress of all the Subtasks. Like the progress of any
+ * Task, it is sent from the thread running this Task: between the Subtasks it computes, and while
+ * it waits for the helpers.
+ *
+ * If a Subtask fails, the Subtasks that have not started are skipped, and this Task fails with the
+ * same Exception once the running ones are done. If this Task is cancellable and gets cancelled,
+ * the Subtasks that have not started are skipped, and the running ones are interrupted.
+ *
+ * @param <Result> the type of the results of the Subtasks
+ */
+public abstract class ParallelTask<Result> extends Task {
+    private final Set<Thread> mWorkers = new HashSet<>(); // The threads computing Subtasks, guarded by itself
+
+    /**
+     * A part of the work of a <code>ParallelTask</code>.
+     *
+     * @param <Result> the type of the result of the Subtask
+     */
+    public static abstract class Subtask<Result> {
+        private Execution<Result> mExecution;
+        private int mIndex;
+
+        /**
+         * The actual work of the Subtask. This can be executed on any thread.
+         *
+         * @return the result of the Subtask
+         * @throws Exception when the Subtask fails, which fails the whole <code>ParallelTask</code>
+         */
+        protected abstract Result compute() throws Exception;
+
+        /**
+         * Reports the progress of this Subtask, which is combined into the progress of the
+         * <code>ParallelTask</code>. <b>This should only be called from <code>compute</code></b>.
+         *
+         * @param progress an integer representing the progress of the Subtask, must be between 0 and 100
+         */
+        @SuppressWarnings("unused")
+        protected final void postProgress(int progress) {
+            if (progress < 0 || progress > 100) {
+                throw new IllegalArgumentException("Invalid progress: " + progress);
+            }
+            mExecution.onProgress(mIndex, progress);
+        }
+
+        /**
+         * @return whether or not the <code>ParallelTask</code> has been cancelled
+         */
+        protected final boolean isCancelled() {
+            return mExecution.mTask.isCancelled();
+        }
+    }
+
+    /**
+     * The state of one run of the Subtasks, shared by the threads working on them.
+     */
+    private static class Execution<Result> implements Runnable {
+        final ParallelTask<Result> mTask;
+        final Thread mOwner; // The thread running the Task
+        final Subtask<Result>[] mSubtasks;
+        final Object[] mResults;
+        final AtomicInteger mNext = new AtomicInteger(); // The index of the next Subtask to take
+        final CountDownLatch mDone;
+        final AtomicReference<Exception> mError = new AtomicReference<>();
+        final AtomicIntegerArray mProgress;
+        final AtomicInteger mTotalProgress = new AtomicInteger();
+        int mLastProgress = -1; // Only used by the owner
+
+        Execution(ParallelTask<Result> task, Subtask<Result>[] subtasks) {
+            mTask = task;
+            mOwner = Thread.currentThread();
+            mSubtasks = subtasks;
+            mResults = new Object[subtasks.length];
+            mDone = new CountDownLatch(subtasks.length);
+            mProgress = new AtomicIntegerArray(subtasks.length);
+        }
+
+        @Override
+        public void run() {
+            work(true);
+        }
+
+        /**
+         * Takes and computes Subtasks until there is none left.
+         * @param isHelper whether this runs on a helper thread rather than the one running the Task
+         */
+        void work(boolean isHelper) {
+            Thread thread = Thread.currentThread();
+            synchronized (mTask.mWorkers) {
+                mTask.mWorkers.add(thread);
+            }
+            try {
+                int index;
+                while ((index = mNext.getAndIncrement()) < mSubtasks.length) {
+                    try {
+                        if (!mTask.isCancelled() && mError.get() == null) {
+                            mResults[index] = mSubtasks[index].compute();
+                            onProgress(index, 100);
+                        }
+                    } catch (Exception e) {
+                        mError.compareAndSet(null, e);
+                    } finally {
+                        mDone.countDown();
+                        if (isHelper) {
+                            LockSupport.unpark(mOwner);
+                        }
+                    }
+                }
+            } finally {
+                // Once removed, the thread cannot be interrupted by a cancellation anymore
+                synchronized (mTask.mWorkers) {
+                    mTask.mWorkers.remove(thread);
+                    if (isHelper && mTask.isCancelled()) {
+                        // Do not leak the interruption to the next job of that thread
+                        Thread.interrupted();
+                    }
+                }
+            }
+        }
+
+        void onProgress(int index, int progress) {
+            mTotalProgress.addAndGet(progress - mProgress.getAndSet(index, progress));
+            if (Thread.currentThread() == mOwner) {
+                sendProgress();
+            } else {
+                LockSupport.unpark(mOwner);
+            }
+        }
+
+        /**
+         * Sends the combined progress of the Subtasks if it increased. Only called by the owner.
+         */
+        void sendProgress() {
+            int aggregated = mTotalProgress.get() / mSubtasks.length;
+            if (aggregated == 100 || aggregated <= mLastProgress || mTask.isCancelled()) {
+                // The parent sends its own completion
+                return;
+            }
+            mLastProgress = aggregated;
+            mTask.postProgress(aggregated);
+        }
+
+        /**
+         * Waits for the helpers to be done with their Subtasks, sending their progress meanwhile.
+         * Only called by the owner, which they unpark on each progress and completion.
+         */
+        void awaitHelpers() throws InterruptedException {
+            while (mDone.getCount() > 0) {
+                sendProgress();
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits the work of this Task into Subtasks. This is called on the thread running this Task.
+     *
+     * @return the Subtasks to run in parallel
+     * @throws Exception when the task fails
+     */
+    @NonNull
+    protected abstract List<? extends Subtask<Result>> fork() throws Exception;
+
+    /**
+     * Combines the results of the Subtasks, once all of them have succeeded. This is called on the
+     * thread running this Task.
+     *
+     * @param results the results of the Subtasks, in the order they were returned by <code>fork</code>
+     * @throws Exception when the task fails
+     */
+    protected abstract void join(@NonNull List<Result> results) throws Exception;
+
+    /**
+     * The maximum number of threads working on the Subtasks at the same time, including the one
+     * running this Task.
+     *
+     * @return the parallelism, the number of available processors by default
+     */
+    protected int parallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    protected final void runTask() throws Exception {
+        List<? extends Subtask<Result>> subtasks = fork();
+        @SuppressWarnings("unchecked")
+        Subtask<Result>[] array = (Subtask<Result>[]) subtasks.toArray(new Subtask<?>[subtasks.size()]);
+        Execution<Result> execution = new Execution<>(this, array);
+        for (int i = 0; i < array.length; i++) {
+            array[i].mExecution = execution;
+            array[i].mIndex = i;
+        }
+        TaskManager manager = getManager();
+        Executor executor = manager != null ? manager.getExecutor() : null;
+        int helpers = Math.min(parallelism(), array.length) - 1;
+        for (int i = 0; i < helpers && executor != null; i++) {
+            try {
+                executor.execute(execution);
+            } catch (RejectedExecutionException e) {
+                // This thread will do the work
+                break;
+            }
+        }
+        execution.work(false);
+        execution.awaitHelpers();
+
+        if (isCancelled()) {
+            throw new InterruptedException();
+        }
+        Exception error = execution.mError.get();
+        if (error != null) {
+            throw error;
+        }
+        List<Result> results = new ArrayList<>(array.length);
+        for (Object result : execution.mResults) {
+            @SuppressWarnings("unchecked")
+            Result typed = (Result) result;
+            results.add(typed);
+        }
+        join(results);
+    }
+
+    @Override
+    void onCancelRequested() {
+        synchronized (mWorkers) {
+            for (Thread worker : mWorkers) {
+                worker.interrupt();
+            }
+        }
+    }
+}
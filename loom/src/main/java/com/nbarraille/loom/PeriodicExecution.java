@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The state of a Task executed periodically by a <code>TaskManager</code>. Each run of the Task is
+ * registered with its own ID, while the series has an ID and a status of its own: it stays STARTED
+ * until it is cancelled.
+ *
+ * Only one run is current at a time: at a fixed rate, the runs falling while the previous one is
+ * still running are skipped. With a fixed delay, the next run is only scheduled once the previous
+ * one is done.
+ */
+class PeriodicExecution {
+    final Task mTask;
+    final int mId;
+    final TaskStatus mStatus; // Kept here, as the backlog could evict it while the series runs
+    final long mPeriodMs;
+    @TaskManager.SchedulePolicy final int mPolicy;
+    private final AtomicBoolean mIsRunning = new AtomicBoolean(false);
+    private long mNextRunNanos; // When the next run is due at a fixed rate, guarded by this
+    @Nullable private TimerWheel.Timeout mTimeout; // The timeout of the next run, guarded by this
+    volatile int mRunId = Task.NO_ID; // The ID of the current or last run
+
+    PeriodicExecution(@NonNull Task task, int id, @NonNull TaskStatus status, long periodMs,
+                      @TaskManager.SchedulePolicy int policy) {
+        mTask = task;
+        mId = id;
+        mStatus = status;
+        mPeriodMs = periodMs;
+        mPolicy = policy;
+    }
+
+    boolean isCancelled() {
+        return !mStatus.isStarted();
+    }
+
+    /**
+     * Schedules the next run on the timer, unless the series has been cancelled.
+     * @param delayMs the delay before the next run, or a negative value for the next run at the
+     *                fixed rate
+     */
+    synchronized void scheduleNext(TimerWheel timer, Runnable run, long delayMs) {
+        if (isCancelled()) {
+            return;
+        }
+        long nowNanos = System.nanoTime();
+        if (delayMs >= 0) {
+            mNextRunNanos = nowNanos + TimeUnit.MILLISECONDS.toNanos(delayMs);
+        } else {
+            // The due times do not drift with the lateness of the timer
+            mNextRunNanos += TimeUnit.MILLISECONDS.toNanos(mPeriodMs);
+            delayMs = Math.max(0, TimeUnit.NANOSECONDS.toMillis(mNextRunNanos - nowNanos));
+        }
+        mTimeout = timer.schedule(run, delayMs);
+    }
+
+    /**
+     * Cancels the next run, if it is scheduled.
+     */
+    synchronized void cancelNext() {
+        if (mTimeout != null) {
+            mTimeout.cancel();
+            mTimeout = null;
+        }
+    }
+
+    /**
+     * @return whether the run could start, because the previous one is done
+     */
+    boolean onRunStarted() {
+        return mIsRunning.compareAndSet(false, true);
+    }
+
+    void onRunDone() {
+        mIsRunning.set(false);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatches Tasks to an <code>Executor</code> in priority order rather than in submission order.
+ *
+ * Tasks wait in a priority queue in front of the Executor. Each submitted Task also submits a token
+ * to the Executor, which runs whichever Task is first in the queue when the Executor gets to it, so
+ * that this works with any Executor.
+ *
+ * Tasks are ordered by a virtual deadline: the time they were submitted at, plus their
+ * {@link Task#deadline()} if deadline scheduling is enabled and they declare one, or one aging
+ * interval otherwise, minus one aging interval per {@link Task#priority()} level. Since the virtual
+ * deadline does not move once a Task is queued, a low priority Task waiting in the queue ends up
+ * passing the higher priority Tasks submitted after it, so it cannot starve.
+ */
+class PriorityDispatcher {
+    private final Executor mExecutor;
+    private final PriorityBlockingQueue<Entry> mQueue;
+    private final long mAgingIntervalNanos;
+    private final boolean mIsDeadlineSchedulingEnabled;
+    private final Runnable mRunNext = new Runnable() {
+        @Override
+        public void run() {
+            Entry entry = mQueue.poll();
+            if (entry != null) {
+                entry.mRunnable.run();
+            }
+        }
+    };
+
+    private static class Entry implements Comparable<Entry> {
+        final Runnable mRunnable;
+        final long mVirtualDeadline;
+        final int mTaskId; // Breaks the ties in submission order
+
+        Entry(Runnable runnable, long virtualDeadline, int taskId) {
+            mRunnable = runnable;
+            mVirtualDeadline = virtualDeadline;
+            mTaskId = taskId;
+        }
+
+        @Override
+        public int compareTo(@NonNull Entry other) {
+            // Comparing differences rather than values, as nanoTime() can overflow
+            long diff = mVirtualDeadline - other.mVirtualDeadline;
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+            return mTaskId < other.mTaskId ? -1 : (mTaskId == other.mTaskId ? 0 : 1);
+        }
+    }
+
+    PriorityDispatcher(Executor executor, long agingIntervalMs, boolean deadlineSchedulingEnabled) {
+        mExecutor = executor;
+        mQueue = new PriorityBlockingQueue<>();
+        mAgingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(agingIntervalMs);
+        mIsDeadlineSchedulingEnabled = deadlineSchedulingEnabled;
+    }
+
+    /**
+     * Queues a Task, to be run according to its priority and deadline.
+     *
+     * @param task     the Task
+     * @param taskId   the ID of the Task
+     * @param runnable the runnable executing the Task
+     * @throws RejectedExecutionException if the Executor rejects the token, in which case the Task
+     * is not queued
+     */
+    void dispatch(@NonNull Task task, int taskId, @NonNull Runnable runnable) {
+        Entry entry = new Entry(runnable, getVirtualDeadline(task), taskId);
+        mQueue.add(entry);
+        try {
+            mExecutor.execute(mRunNext);
+        } catch (RejectedExecutionException e) {
+            // Otherwise the token of another Task would run this one instead
+            mQueue.remove(entry);
+            throw e;
+        }
+    }
+
+    private long getVirtualDeadline(Task task) {
+        long deadline = task.deadline();
+        long slack = mIsDeadlineSchedulingEnabled && deadline != Task.NO_DEADLINE
+                ? TimeUnit.MILLISECONDS.toNanos(deadline) : mAgingIntervalNanos;
+        return System.nanoTime() + slack - task.priority() * mAgingIntervalNanos;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Coalesces the progress updates of a single execution of a Task.
+ *
+ * Progress values repeating the last one are dropped, and values are delivered at most once per
+ * interval: the ones arriving in between are held back, and only the latest of them is delivered
+ * on the next update after the interval, at the end of the interval if there is none by then, or
+ * when the Task finishes.
+ * It also keeps the only progress event waiting to be delivered on the UI Thread, so that the
+ * UI Thread never has more than one progress delivery queued for that Task.
+ *
+ * All the methods must be called holding the monitor of the coalescer, which is also held while
+ * delivering the values, so that they are delivered in order.
+ */
+class ProgressCoalescer {
+    private static final int NONE = -1;
+
+    private final long mMinIntervalNanos;
+    private int mLastValue = NONE; // The last value reported by the task
+    private int mPendingValue = NONE; // The latest value held back by the rate limit
+    private long mLastDeliveryNanos;
+    private boolean mHasDelivered = false;
+    private boolean mIsFlushScheduled = false; // Whether a delivery is scheduled for the value held back
+    final AtomicReference<Event> mPendingUiEvent = new AtomicReference<>();
+
+    ProgressCoalescer(long minIntervalMillis) {
+        mMinIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+    }
+
+    /**
+     * @param progress the progress reported by the Task
+     * @return the progress to deliver now, or a negative value if nothing should be delivered
+     */
+    int onProgress(int progress) {
+        if (progress == mLastValue) {
+            return NONE;
+        }
+        mLastValue = progress;
+        long now = System.nanoTime();
+        if (mHasDelivered && now - mLastDeliveryNanos < mMinIntervalNanos) {
+            mPendingValue = progress;
+            return NONE;
+        }
+        mHasDelivered = true;
+        mLastDeliveryNanos = now;
+        mPendingValue = NONE;
+        return progress;
+    }
+
+    /**
+     * Schedules the delivery of the value held back by the rate limit, if there is one.
+     * @return the delay until the end of the interval, in milliseconds, or a negative value if
+     * there is nothing to schedule
+     */
+    long scheduleFlush() {
+        if (mPendingValue == NONE || mIsFlushScheduled) {
+            return NONE;
+        }
+        mIsFlushScheduled = true;
+        long remainingNanos = mMinIntervalNanos - (System.nanoTime() - mLastDeliveryNanos);
+        // Rounded up, so that it is not due before the end of the interval
+        return TimeUnit.NANOSECONDS.toMillis(Math.max(0, remainingNanos)) + 1;
+    }
+
+    /**
+     * Called when the delivery scheduled by {@link #scheduleFlush} is due.
+     * @return the progress held back to deliver now, or a negative value if there is none, or if
+     * another value has been delivered since and the interval is not over yet
+     */
+    int onFlushDue() {
+        mIsFlushScheduled = false;
+        long now = System.nanoTime();
+        if (mPendingValue == NONE || now - mLastDeliveryNanos < mMinIntervalNanos) {
+            return NONE;
+        }
+        mLastDeliveryNanos = now;
+        return flush();
+    }
+
+    /**
+     * @return the latest progress held back by the rate limit that should be delivered now, or a
+     * negative value if there is none
+     */
+    int flush() {
+        int pending = mPendingValue;
+        mPendingValue = NONE;
+        return pending;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+
+import com.nbarraille.loom.events.SuccessEvent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link SuccessEvent}s of the Tasks declaring a {@link Task#cacheKey()}, so that they
+ * can be delivered again without running the Tasks. Entries are evicted when they are the least
+ * recently used ones and the cache is full, and are considered stale after their time to live.
+ *
+ * Each delivery gets its own shallow copy of the cached event, the fields of which are shared.
+ */
+class ResultCache {
+    private final LruCache<String, Entry> mEntries;
+    private final long mTtlNanos;
+
+    static class Entry {
+        final SuccessEvent mEvent;
+        final long mCreationTimeNanos;
+
+        Entry(SuccessEvent event, long creationTimeNanos) {
+            mEvent = event;
+            mCreationTimeNanos = creationTimeNanos;
+        }
+
+        /**
+         * @return a copy of the cached event, as the listeners could still hold the previous ones
+         */
+        SuccessEvent copyEvent() {
+            return (SuccessEvent) ((Event) mEvent).copy();
+        }
+    }
+
+    ResultCache(int maxEntries, long ttlMs) {
+        mEntries = new LruCache<>(maxEntries);
+        mTtlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+
+    /**
+     * @param key the cache key
+     * @return the entry for this key, fresh or stale, or null
+     */
+    @Nullable
+    Entry get(@NonNull String key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * @param entry the entry
+     * @return whether the entry is still within its time to live
+     */
+    boolean isFresh(@NonNull Entry entry) {
+        return System.nanoTime() - entry.mCreationTimeNanos < mTtlNanos;
+    }
+
+    void put(@NonNull String key, @NonNull SuccessEvent event) {
+        mEntries.put(key, new Entry(event, System.nanoTime()));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+/**
+ * How a Task is retried when it fails: how many times it runs at most, and how long it waits
+ * before each new attempt. The delays grow exponentially, from the initial delay up to the
+ * maximum one, and are randomized by the jitter so that Tasks failing together do not retry
+ * together.
+ * @see Task#retryPolicy()
+ */
+public class RetryPolicy {
+    private final static long DEFAULT_INITIAL_DELAY = 1000;
+    private final static long DEFAULT_MAX_DELAY = 30 * 1000;
+    private final static double DEFAULT_MULTIPLIER = 2;
+    private final static double DEFAULT_JITTER = 0.5;
+    private final int mMaxAttempts;
+    private long mInitialDelay = DEFAULT_INITIAL_DELAY;
+    private long mMaxDelay = DEFAULT_MAX_DELAY;
+    private double mMultiplier = DEFAULT_MULTIPLIER;
+    private double mJitter = DEFAULT_JITTER;
+
+    /**
+     * Creates a RetryPolicy
+     * @param maxAttempts the maximum number of times the Task runs, including the first one
+     */
+    public RetryPolicy(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Invalid number of attempts: " + maxAttempts);
+        }
+        mMaxAttempts = maxAttempts;
+    }
+
+    /**
+     * Sets the delay before the second attempt, and the maximum delay between two attempts.
+     * This is configured to <code>1000</code> and <code>30000</code> milliseconds by default.
+     *
+     * @param initialDelayMs the delay before the second attempt, in milliseconds
+     * @param maxDelayMs     the maximum delay, in milliseconds
+     * @return the same RetryPolicy object
+     */
+    public RetryPolicy setBackoff(long initialDelayMs, long maxDelayMs) {
+        mInitialDelay = initialDelayMs;
+        mMaxDelay = maxDelayMs;
+        return this;
+    }
+
+    /**
+     * Sets the factor applied to the delay after each attempt.
+     * This is configured to <code>2</code> by default.
+     *
+     * @param multiplier the factor
+     * @return the same RetryPolicy object
+     */
+    public RetryPolicy setMultiplier(double multiplier) {
+        mMultiplier = multiplier;
+        return this;
+    }
+
+    /**
+     * Sets the fraction of each delay that is randomized: with a jitter of <code>0.5</code>, a delay
+     * of 1 second becomes a random delay between 0.5 and 1 second.
+     * This is configured to <code>0.5</code> by default.
+     *
+     * @param jitter the fraction, between <code>0</code> and <code>1</code>
+     * @return the same RetryPolicy object
+     */
+    public RetryPolicy setJitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Invalid jitter: " + jitter);
+        }
+        mJitter = jitter;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of times the Task runs, including the first one
+     */
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * @param attempt the attempt that just failed, starting at 1
+     * @return the delay before the next attempt, in milliseconds
+     */
+    long getDelay(int attempt) {
+        double delay = Math.min(mMaxDelay, mInitialDelay * Math.pow(mMultiplier, attempt - 1));
+        return (long) (delay * (1 - mJitter * Math.random()));
+    }
+}
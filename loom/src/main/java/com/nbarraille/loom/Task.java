@@ -62,15 +62,33 @@ import com.nbarraille.loom.events.SuccessEvent;
  */
 public abstract class Task {
     private TaskManager mManager; // The manager this Task is executed with
+    private volatile int mId = NO_ID; // The ID assigned by the manager when this task was executed
     @Nullable private volatile Thread mThread; // The thread on which that task is running. Will be null until it starts executing
+    private final Object mThreadLock = new Object(); // Guards the interruption of mThread against its release
     private volatile boolean mIsCancelled = false; // Whether or not that task has been cancelled
     private volatile boolean mIsFinished = false; // Whether or not that task has been cancelled
+    private volatile boolean mIsTimedOut = false; // Whether or not that task has been cancelled by its timeout
+    @Nullable ProgressCoalescer mProgressCoalescer; // Coalesces the progress of the current execution, if enabled
+    @Nullable ListenerRegistry.ProgressValueSlot mProgressValueSlot; // The progress of the current execution waiting for the UI Thread
+    @Nullable GraphExecution mGraph; // The graph the current execution is part of, if any
+    int mGraphNode; // The index of this task in that graph
+    @Nullable PeriodicExecution mPeriodic; // The periodic series the current execution is a run of, if any
+    @Nullable TaskMetrics mMetrics; // The metrics of the tasks with this name, if enabled
+
+    static final int NO_ID = 0;
+    public static final long NO_DEADLINE = -1;
+    public static final long NO_TIMEOUT = -1;
 
     /**
-     * @return the ID of the Task
+     * @return the ID of the Task, assigned by the <code>TaskManager</code> when it is executed, or
+     * {@link #NO_ID} if it has not been executed yet
      */
     final int getId() {
-        return hashCode();
+        return mId;
+    }
+
+    final void setId(int id) {
+        mId = id;
     }
 
     /**
@@ -92,6 +110,94 @@ public abstract class Task {
      */
     protected abstract void runTask() throws Exception;
 
+    /**
+     * The priority of the Task, used when the <code>TaskManager</code> has priority scheduling
+     * enabled. Tasks with a higher priority run first. Each priority level is worth one aging
+     * interval of waiting in the queue, so that lower priority Tasks still run eventually.
+     * @see LoomConfig#setPrioritySchedulingEnabled
+     *
+     * @return the priority of the Task, <code>0</code> by default
+     */
+    protected int priority() {
+        return 0;
+    }
+
+    /**
+     * The time within which the Task should start, used when the <code>TaskManager</code> has
+     * deadline scheduling enabled. Tasks with the earliest deadline run first.
+     * @see LoomConfig#setDeadlineSchedulingEnabled
+     *
+     * @return the deadline in milliseconds after the Task is executed, or {@link #NO_DEADLINE}
+     */
+    protected long deadline() {
+        return NO_DEADLINE;
+    }
+
+    /**
+     * The maximum time the Task can run for. When it expires, the Task is cancelled and its thread
+     * interrupted, even if it is not cancellable, then {@link #onCancelled} is called and a
+     * {@link FailureEvent} marked as a {@link FailureEvent#isTimeout() timeout} is sent.
+     * The time spent waiting for the <code>Executor</code> does not count.
+     *
+     * @return the timeout in milliseconds, or {@link #NO_TIMEOUT}
+     */
+    protected long timeout() {
+        return NO_TIMEOUT;
+    }
+
+    /**
+     * The policy applied to retry the Task when it fails, including when it times out. While the
+     * Task waits for its next attempt, it is parked on the <code>TaskManager</code>'s timer rather
+     * than holding a thread, its {@link TaskStatus} stays STARTED and shows the attempt, and the
+     * listeners only receive the {@link SuccessEvent} or {@link FailureEvent} of the last attempt.
+     * Return a shared instance rather than a new one each time.
+     *
+     * @return the retry policy of the Task, or <code>null</code> to never retry it
+     */
+    @Nullable
+    protected RetryPolicy retryPolicy() {
+        return null;
+    }
+
+    /**
+     * Decides whether the Task is retried after failing with the given error, when it has a
+     * {@link #retryPolicy()} and attempts left.
+     *
+     * @param error the error the Task failed with, a
+     *              {@link java.util.concurrent.TimeoutException} if it timed out
+     * @return whether the Task is retried, <code>true</code> by default
+     */
+    protected boolean shouldRetry(@SuppressWarnings("UnusedParameters") Exception error) {
+        return true;
+    }
+
+    /**
+     * The key under which the result of the Task is cached, used when the <code>TaskManager</code>
+     * has a result cache. Executing a Task whose key has a cached result delivers the cached
+     * {@link SuccessEvent} instead of running it. Each delivery gets a shallow copy of that event,
+     * so its fields must not be modified once the Task has succeeded.
+     * @see LoomConfig#setResultCacheSize
+     *
+     * @return the cache key of the Task, or <code>null</code> to never cache it
+     */
+    @Nullable
+    protected String cacheKey() {
+        return null;
+    }
+
+    /**
+     * The key of the lane the Task runs in. The Tasks sharing a lane run one at a time, in the
+     * order they were executed, while the other Tasks keep running in parallel on the same
+     * <code>Executor</code>. No thread is dedicated to a lane, the Tasks waiting for their turn do
+     * not hold one.
+     *
+     * @return the lane key of the Task, or <code>null</code> to not run it in a lane
+     */
+    @Nullable
+    protected String laneKey() {
+        return null;
+    }
+
     /**
      * Builds the event to be sent on the bus when the task succeeds. By default this builds a generic
      * {@link SuccessEvent}.
@@ -176,9 +282,8 @@ public abstract class Task {
             return;
         }
 
-        ProgressEvent event = buildProgressEvent(progress);
-        if (event != null && mManager != null) {
-            mManager.postEvent(this, event);
+        if (mManager != null) {
+            mManager.postProgress(this, progress);
         }
     }
 
@@ -208,14 +313,25 @@ public abstract class Task {
         return mIsFinished;
     }
 
+    @Nullable
+    final TaskManager getManager() {
+        return mManager;
+    }
+
     final void run(TaskManager manager) throws Exception {
-        mThread = Thread.currentThread();
+        synchronized (mThreadLock) {
+            mThread = Thread.currentThread();
+        }
         mManager = manager;
+        mIsFinished = false;
         try {
             runTask();
         } finally {
             mIsFinished = true;
-            mThread = null;
+            // Once released, the thread cannot be interrupted for this Task anymore
+            synchronized (mThreadLock) {
+                mThread = null;
+            }
         }
     }
 
@@ -223,14 +339,52 @@ public abstract class Task {
         if (!isCancellable()) {
             throw new IllegalStateException("The task is not cancellable");
         }
-        if (mIsCancelled) {
-            return;
+        requestCancel();
+    }
+
+    /**
+     * Cancels the Task because its timeout expired, whether it is cancellable or not.
+     */
+    final void timeOut() {
+        mIsTimedOut = true;
+        requestCancel();
+    }
+
+    /**
+     * Clears the cancellation caused by the timeout, before retrying the Task.
+     */
+    final void clearTimeOut() {
+        if (mIsTimedOut) {
+            mIsTimedOut = false;
+            mIsCancelled = false;
         }
-        mIsCancelled = true;
-        // We have to use a local variable, because mThread is volatile and might change
-        Thread thread = mThread;
-        if (thread != null) {
-            thread.interrupt();
+    }
+
+    /**
+     * Clears the cancellation of a previous run, before running the Task again.
+     */
+    final void clearCancelled() {
+        mIsTimedOut = false;
+        mIsCancelled = false;
+    }
+
+    private void requestCancel() {
+        synchronized (mThreadLock) {
+            if (mIsCancelled) {
+                return;
+            }
+            mIsCancelled = true;
+            Thread thread = mThread;
+            if (thread != null) {
+                thread.interrupt();
+            }
         }
+        onCancelRequested();
     }
+
+    /**
+     * Called after the Task has been flagged as cancelled and its thread interrupted, for the
+     * Tasks running work on other threads to interrupt it too.
+     */
+    void onCancelRequested() {}
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import android.support.annotation.NonNull;
+
+import com.nbarraille.loom.events.FailureEvent;
+import com.nbarraille.loom.events.ProgressEvent;
+import com.nbarraille.loom.events.SuccessEvent;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A graph of Tasks to be executed together, each Task only starting once the Tasks it depends on
+ * have succeeded. Tasks that do not depend on each other run in parallel, as far as the
+ * <code>Executor</code> allows.
+ *
+ * Build the graph by adding the Tasks with their dependencies, which have to be added first, so
+ * that the graph cannot have cycles. Then execute it with {@link TaskManager#executeGraph}.
+ *
+ * The graph has its own ID and {@link TaskStatus}, and sends its own events, with the graph's
+ * {@link #name()} as task name: a {@link ProgressEvent} with the average progress of its Tasks,
+ * a {@link SuccessEvent} once all of them have succeeded, or a {@link FailureEvent} as soon as one
+ * of them fails. If one of the Tasks fails or is cancelled, the Tasks of the graph that have not
+ * started are cancelled, and so are the running ones if they are cancellable.
+ * The Tasks of the graph also send their own events, as if they were executed separately.
+ *
+ * A Task can only be part of one executing graph at a time.
+ */
+public class TaskGraph {
+    private final String mName;
+    final List<Task> mTasks = new ArrayList<>();
+    final List<int[]> mDependencies = new ArrayList<>(); // The indices of the dependencies of each Task
+    private final Map<Task, Integer> mIndices = new IdentityHashMap<>();
+
+    /**
+     * @param name the name of the graph, used to match the graph's events with the right listeners
+     */
+    public TaskGraph(@NonNull String name) {
+        mName = name;
+    }
+
+    /**
+     * @return the name of the graph
+     */
+    public String name() {
+        return mName;
+    }
+
+    /**
+     * Adds a Task to the graph.
+     *
+     * @param task         the Task
+     * @param dependencies the Tasks that need to succeed before this one starts. They must already
+     *                     be part of the graph.
+     * @return the same TaskGraph object
+     * @throws IllegalArgumentException if the Task is already part of the graph, or one of its
+     * dependencies is not
+     */
+    public TaskGraph add(@NonNull Task task, @NonNull Task... dependencies) throws IllegalArgumentException {
+        if (task == null) {
+            throw new NullPointerException("task == null");
+        }
+        if (mIndices.containsKey(task)) {
+            throw new IllegalArgumentException("The task is already part of the graph");
+        }
+        int[] indices = new int[dependencies.length];
+        for (int i = 0; i < dependencies.length; i++) {
+            Integer index = mIndices.get(dependencies[i]);
+            if (index == null) {
+                throw new IllegalArgumentException("The dependency is not part of the graph");
+            }
+            indices[i] = index;
+        }
+        mIndices.put(task, mTasks.size());
+        mTasks.add(task);
+        mDependencies.add(indices);
+        return this;
+    }
+}
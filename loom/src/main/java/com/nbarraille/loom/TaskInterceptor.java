@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Intercepts the execution of Tasks and the posting of their events, to add timing, tracing or
+ * context around them. Register interceptors with {@link LoomConfig#addInterceptor}, and override
+ * the hooks you need.
+ *
+ * The run hooks are called on the thread running the Task, the post hooks on the thread posting
+ * the event, in the order the interceptors were registered for the <code>before</code> hooks, and
+ * in the reverse order for the others. Exceptions thrown by the hooks do not affect the Tasks, they
+ * are only logged if logging is enabled.
+ */
+public abstract class TaskInterceptor {
+    /**
+     * Called right before a Task starts running.
+     *
+     * @param task     the Task
+     * @param taskName the name of the Task
+     * @param taskId   the ID of the Task
+     */
+    public void beforeRun(@NonNull Task task, @NonNull String taskName, int taskId) {}
+
+    /**
+     * Called when a Task fails or gets interrupted, right before {@link #afterRun}.
+     *
+     * @param task     the Task
+     * @param taskName the name of the Task
+     * @param taskId   the ID of the Task
+     * @param error    the Exception thrown by the Task
+     */
+    public void onError(@NonNull Task task, @NonNull String taskName, int taskId, @NonNull Exception error) {}
+
+    /**
+     * Called right after a Task has stopped running, whether it succeeded or not, before its
+     * success or failure event is posted.
+     *
+     * @param task     the Task
+     * @param taskName the name of the Task
+     * @param taskId   the ID of the Task
+     */
+    public void afterRun(@NonNull Task task, @NonNull String taskName, int taskId) {}
+
+    /**
+     * Called before an event is delivered to the listeners.
+     *
+     * @param event the event, with its task name set
+     */
+    public void beforePost(@NonNull Event event) {}
+
+    /**
+     * Called after an event has been delivered to the listeners, or queued for the ones running on
+     * the UI Thread.
+     *
+     * @param event the event, with its task name set
+     */
+    public void afterPost(@NonNull Event event) {}
+}
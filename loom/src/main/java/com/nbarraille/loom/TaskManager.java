@@ -17,23 +17,38 @@ package com.nbarraille.loom;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.support.v4.util.LruCache;
 import android.text.TextUtils;
 import android.util.Log;
 
 import com.nbarraille.loom.events.FailureEvent;
+import com.nbarraille.loom.events.ProgressEvent;
 import com.nbarraille.loom.events.SuccessEvent;
 import com.nbarraille.loom.listeners.LoomListener;
+import com.nbarraille.loom.listeners.RoutedListener;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import de.greenrobot.event.EventBus;
 
@@ -48,12 +63,140 @@ import de.greenrobot.event.EventBus;
  * You can cancel Tasks by using {@link #cancelTask} or {@link #cancelTasks}.
  */
 public class TaskManager {
+    @IntDef({JOIN, REPLACE, QUEUE, REJECT})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface ConflictPolicy {}
+
+    /**
+     * Do not execute the new Task, and return the ID of the pending or running one
+     */
+    public static final int JOIN = 0;
+    /**
+     * Cancel the pending or running Task, and execute the new one
+     */
+    public static final int REPLACE = 1;
+    /**
+     * Execute the new Task after the pending or running one, and the ones already queued, finish
+     */
+    public static final int QUEUE = 2;
+    /**
+     * Do not execute the new Task
+     */
+    public static final int REJECT = 3;
+
+    @IntDef({BLOCK, RUN_ON_CALLER, DROP_OLDEST, FAIL_FAST})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface BackPressurePolicy {}
+
+    /**
+     * Block the calling thread until a pending Task starts
+     */
+    public static final int BLOCK = 0;
+    /**
+     * Run the new Task on the calling thread
+     */
+    public static final int RUN_ON_CALLER = 1;
+    /**
+     * Cancel the oldest pending Task, and execute the new one
+     */
+    public static final int DROP_OLDEST = 2;
+    /**
+     * Do not run the new Task, and send its FailureEvent right away
+     */
+    public static final int FAIL_FAST = 3;
+
+    /**
+     * How the runs of a periodic Task are spaced
+     */
+    @IntDef({FIXED_RATE, FIXED_DELAY})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface SchedulePolicy {}
+
+    /**
+     * Start a run every period, skipping the runs falling while the previous one is still running
+     */
+    public static final int FIXED_RATE = 0;
+    /**
+     * Start a run one period after the previous one is done
+     */
+    public static final int FIXED_DELAY = 1;
+
+    // The outcomes of a run of a task
+    private static final int SUCCEEDED = 0;
+    private static final int FAILED = 1;
+    private static final int RETRYING = 2;
+
     private final Executor mExecutor; // The executor on which the tasks will be executed
-    private final EventBus mEventBus; // The EventBus used to notify the listeners
-    private final LruCache<Integer, TaskStatus> mTaskStatuses; // Keeping track of the status of all current and past tasks for this session
-    private final Map<Integer, WeakReference<Task>> mCurrentTasksById;
-    private final Map<String, Set<Integer>> mCurrentTasksIds;
+    @Nullable private final PriorityDispatcher mPriorityDispatcher; // Orders the tasks before the executor, if enabled
+    private final EventBus mEventBus; // The EventBus used to notify the listeners that are not RoutedListeners
+    private final ListenerRegistry mListeners; // The RoutedListeners, indexed by task name
+    private final Set<LoomListener<?, ?, ?>> mBusListeners; // The listeners registered on the EventBus
+    private final Backlog mTaskStatuses; // Keeping track of the status of all current and past tasks for this session
+    private final ConcurrentMap<Integer, WeakReference<Task>> mCurrentTasksById; // The pending and running tasks
+    private final ConcurrentMap<String, Set<Integer>> mCurrentTasksIds; // The IDs of the pending and running tasks, by name
+    private final ConcurrentMap<String, KeyedTasks> mKeyedTasks; // The tasks executed with a conflict key, by key
+    private final ConcurrentMap<Integer, GraphExecution> mCurrentGraphsById; // The running task graphs
+    private final ConcurrentMap<Integer, PeriodicExecution> mCurrentPeriodicById; // The periodic series not cancelled yet
+    private final ConcurrentMap<Integer, DelayedRun> mDelayedRunsById; // The delayed tasks waiting on the timer
+    private final AtomicInteger mLastTaskId; // The last ID given to a task. IDs are sequential, starting at 1
     private final boolean mIsLoggingEnabled;
+    private final boolean mIsProgressCoalescingEnabled;
+    private final long mMinProgressInterval;
+    @Nullable private final ResultCache mResultCache; // The results of the tasks declaring a cache key, if enabled
+    private final boolean mIsStaleWhileRevalidateEnabled;
+    @Nullable private final ConcurrentMap<String, TaskMetrics> mMetrics; // The metrics, by task name, if enabled
+    @Nullable private final TaskInterceptor[] mInterceptors; // Null rather than empty, so that having none costs a null check
+    private final int mMaxPendingTasks; // The maximum number of tasks waiting for the executor, 0 if unbounded
+    @BackPressurePolicy private final int mBackPressurePolicy;
+    private final AtomicInteger mPendingCount; // The number of tasks counted as pending that have not started
+    @Nullable private final Queue<TaskRunnable> mPendingQueue; // The tasks counted as pending, oldest first, for DROP_OLDEST
+    private final Object mPendingLock = new Object(); // Notified when there is room for a pending task, for BLOCK
+    private final TimerWheel mTimer; // Runs the timeouts of the tasks, on a single thread started when first needed
+    @Nullable private final Map<String, Bulkhead> mBulkheads; // The concurrency limits, by task name, if any
+    private final ConcurrentMap<String, Bulkhead> mLanes; // The lanes with a task running, by lane key
+
+    /**
+     * The Tasks executed with the same conflict key: the one pending or running, and the ones queued
+     * to run after it. Guarded by its own monitor.
+     */
+    private static class KeyedTasks {
+        final String mKey;
+        int mCurrentId = Task.NO_ID;
+        final Queue<QueuedTask> mQueued = new ArrayDeque<>();
+        boolean mIsRemoved = false; // Whether it has been removed from mKeyedTasks, and cannot be used anymore
+
+        KeyedTasks(String key) {
+            mKey = key;
+        }
+    }
+
+    /**
+     * The Tasks limited in how many of them run at once, either because of their name or because
+     * they share a lane: the ones handed to the Executor, and the ones waiting for one of them to
+     * finish. Guarded by its own monitor.
+     */
+    private static class Bulkhead {
+        @Nullable final String mLaneKey; // The key of the lane, or null for the bulkhead of a task name
+        final int mMaxRunning;
+        final Set<TaskRunnable> mRunning = new HashSet<>();
+        final Queue<TaskRunnable> mWaiting = new ArrayDeque<>();
+        boolean mIsRemoved = false; // Whether the lane has been removed from mLanes, and cannot be used anymore
+
+        Bulkhead(@Nullable String laneKey, int maxRunning) {
+            mLaneKey = laneKey;
+            mMaxRunning = maxRunning;
+        }
+    }
+
+    private static class QueuedTask {
+        final Task mTask;
+        final int mTaskId;
+
+        QueuedTask(Task task, int taskId) {
+            mTask = task;
+            mTaskId = taskId;
+        }
+    }
 
     /**
      * Builder with fluent API to build <code>TaskManager</code> objects
@@ -96,6 +239,8 @@ public class TaskManager {
         /**
          * Sets the {@link EventBus} on which the Success, Failure and Progress events will be send
          * back to the Listeners.
+         * Listeners extending {@link RoutedListener} are notified directly by the TaskManager, the
+         * bus is only used for the other listeners.
          *
          * @param eventBus the bus
          * @return the same Builder object
@@ -121,152 +266,1460 @@ public class TaskManager {
             return this;
         }
 
-        /**
-         * Sets whether or not the TaskManager will log non-fatal errors or not.
-         * This is false by default.
-         *
-         * @param enabled whether or not the logging is enabled
-         * @return the same Builder object
-         */
-        @SuppressWarnings("unused")
-        public Builder setLoggingEnabled(boolean enabled) {
-            mConfig.setLoggingEnabled(enabled);
-            return this;
+        /**
+         * Sets whether or not the backlog is a ring buffer.
+         * By default, the backlog evicts the least recently accessed Tasks first, but every access
+         * to it takes a lock. A ring buffer backlog keeps exactly the <code>maxBacklogSize</code>
+         * most recently executed Tasks, and can be read and updated without locking.
+         * This is false by default.
+         *
+         * @param enabled whether or not the backlog is a ring buffer
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setRingBufferBacklogEnabled(boolean enabled) {
+            mConfig.setRingBufferBacklogEnabled(enabled);
+            return this;
+        }
+
+        /**
+         * Sets whether or not the TaskManager will log non-fatal errors or not.
+         * This is false by default.
+         *
+         * @param enabled whether or not the logging is enabled
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setLoggingEnabled(boolean enabled) {
+            mConfig.setLoggingEnabled(enabled);
+            return this;
+        }
+
+        /**
+         * Sets whether or not the progress sent by Tasks is coalesced.
+         * When enabled, a progress repeating the previous one is dropped, progress is delivered at
+         * most once per {@link #setMinProgressInterval interval} for each Task, and listeners running
+         * on the UI Thread only receive the latest progress when the UI Thread gets to it.
+         * This is false by default.
+         *
+         * @param enabled whether or not progress coalescing is enabled
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setProgressCoalescingEnabled(boolean enabled) {
+            mConfig.setProgressCoalescingEnabled(enabled);
+            return this;
+        }
+
+        /**
+         * Sets the minimum interval between two progress deliveries of a Task, when progress
+         * coalescing is enabled.
+         * This is configured to <code>16</code> milliseconds (one frame) by default.
+         *
+         * @param intervalMs the interval, in milliseconds
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setMinProgressInterval(long intervalMs) {
+            mConfig.setMinProgressInterval(intervalMs);
+            return this;
+        }
+
+        /**
+         * Sets whether or not Tasks are scheduled according to their {@link Task#priority()}.
+         * When enabled, Tasks with a higher priority run first, and a Task waiting in the queue
+         * gains one priority level per {@link #setPriorityAgingInterval aging interval}.
+         * This is false by default.
+         *
+         * @param enabled whether or not priority scheduling is enabled
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setPrioritySchedulingEnabled(boolean enabled) {
+            mConfig.setPrioritySchedulingEnabled(enabled);
+            return this;
+        }
+
+        /**
+         * Sets whether or not Tasks are scheduled according to their {@link Task#deadline()},
+         * earliest deadline first. This also enables priority scheduling.
+         * This is false by default.
+         *
+         * @param enabled whether or not deadline scheduling is enabled
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setDeadlineSchedulingEnabled(boolean enabled) {
+            mConfig.setDeadlineSchedulingEnabled(enabled);
+            return this;
+        }
+
+        /**
+         * Sets how long a Task has to wait in the queue to gain one priority level, when priority
+         * scheduling is enabled.
+         * This is configured to <code>1000</code> milliseconds by default.
+         *
+         * @param intervalMs the interval, in milliseconds
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setPriorityAgingInterval(long intervalMs) {
+            mConfig.setPriorityAgingInterval(intervalMs);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of results kept in the result cache. Executing a Task whose
+         * {@link Task#cacheKey()} has a fresh result delivers the cached SuccessEvent without
+         * running it. The least recently used results are evicted first.
+         * This is <code>0</code> by default, which disables the cache.
+         *
+         * @param maxEntries the maximum number of cached results
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setResultCacheSize(int maxEntries) {
+            mConfig.setResultCacheSize(maxEntries);
+            return this;
+        }
+
+        /**
+         * Sets how long a cached result stays fresh.
+         * This is configured to <code>60000</code> milliseconds by default.
+         *
+         * @param ttlMs the time to live of the results, in milliseconds
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setResultCacheTtl(long ttlMs) {
+            mConfig.setResultCacheTtl(ttlMs);
+            return this;
+        }
+
+        /**
+         * Sets whether or not stale cached results are delivered right away while the Task runs
+         * in the background to refresh them.
+         * This is false by default.
+         *
+         * @param enabled whether or not stale-while-revalidate is enabled
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setStaleWhileRevalidateEnabled(boolean enabled) {
+            mConfig.setStaleWhileRevalidateEnabled(enabled);
+            return this;
+        }
+
+        /**
+         * Sets whether or not the default Executor runs each Task on its own virtual thread, when
+         * running on a JVM that supports them (Java 21 and later).
+         * This is false by default.
+         *
+         * @param enabled whether or not virtual threads are used when available
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setVirtualThreadsEnabled(boolean enabled) {
+            mConfig.setVirtualThreadsEnabled(enabled);
+            return this;
+        }
+
+        /**
+         * Sets whether or not the default Executor is a pool adapting its number of threads to the
+         * workload.
+         * This is false by default.
+         * @see LoomConfig#setAdaptivePoolEnabled
+         *
+         * @param enabled whether or not the default Executor is an adaptive pool
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setAdaptivePoolEnabled(boolean enabled) {
+            mConfig.setAdaptivePoolEnabled(enabled);
+            return this;
+        }
+
+        /**
+         * Sets the bounds of the number of threads of the adaptive pool.
+         * This is configured to <code>2</code> to <code>max(16, 4 * cores)</code> threads by default.
+         *
+         * @param minThreads the number of threads the pool keeps when idle, at least <code>1</code>
+         * @param maxThreads the maximum number of threads
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setAdaptivePoolSize(int minThreads, int maxThreads) {
+            mConfig.setAdaptivePoolSize(minThreads, maxThreads);
+            return this;
+        }
+
+        /**
+         * Sets how long a thread of the adaptive pool above the minimum stays idle before exiting.
+         * This is configured to <code>30000</code> milliseconds by default.
+         *
+         * @param timeoutMs the idle timeout, in milliseconds
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setAdaptivePoolIdleTimeout(long timeoutMs) {
+            mConfig.setAdaptivePoolIdleTimeout(timeoutMs);
+            return this;
+        }
+
+        /**
+         * Sets whether or not the TaskManager keeps metrics for each task name.
+         * This is false by default.
+         * @see TaskManager#getMetrics()
+         *
+         * @param enabled whether or not metrics are enabled
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setMetricsEnabled(boolean enabled) {
+            mConfig.setMetricsEnabled(enabled);
+            return this;
+        }
+
+        /**
+         * Adds an interceptor, called around the execution of each Task and the posting of each
+         * event, in the order they were added.
+         *
+         * @param interceptor the interceptor
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder addInterceptor(TaskInterceptor interceptor) {
+            mConfig.addInterceptor(interceptor);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of Tasks with the given name running at once. The other ones
+         * wait in their own queue, without holding a thread of the Executor.
+         * @see LoomConfig#setMaxConcurrentTasks
+         *
+         * @param taskName   the name of the Tasks
+         * @param maxRunning the maximum number of them running at once
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setMaxConcurrentTasks(String taskName, int maxRunning) {
+            mConfig.setMaxConcurrentTasks(taskName, maxRunning);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of Tasks waiting for the Executor, and the policy applied to the
+         * Tasks executed beyond it.
+         * This is <code>0</code> by default, which leaves the number of pending Tasks unbounded.
+         * @see LoomConfig#setMaxPendingTasks
+         *
+         * @param maxPendingTasks the maximum number of pending Tasks
+         * @param policy          the policy applied to the Tasks executed beyond it
+         * @return the same Builder object
+         */
+        @SuppressWarnings("unused")
+        public Builder setMaxPendingTasks(int maxPendingTasks, @BackPressurePolicy int policy) {
+            mConfig.setMaxPendingTasks(maxPendingTasks, policy);
+            return this;
+        }
+
+        private static Executor buildDefaultExecutor(LoomConfig config) {
+            if (config.mVirtualThreadsEnabled) {
+                Executor executor = buildVirtualThreadExecutor();
+                if (executor != null) {
+                    return executor;
+                }
+            }
+            if (config.mAdaptivePoolEnabled) {
+                return new AdaptiveExecutor(config.mAdaptivePoolMinThreads,
+                        config.mAdaptivePoolMaxThreads, config.mAdaptivePoolIdleTimeout);
+            }
+            return Executors.newFixedThreadPool(2);
+        }
+
+        /**
+         * @return an Executor running each task on a new virtual thread, or null if this runtime
+         * does not support them. This is looked up reflectively, as Android does not have it.
+         */
+        @Nullable
+        private static Executor buildVirtualThreadExecutor() {
+            try {
+                return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        private static EventBus buildDefaultBus() {
+            return EventBus.builder().logNoSubscriberMessages(false)
+                    .sendNoSubscriberEvent(false).build();
+        }
+
+        /**
+         * @return the TaskManager configured with this Builder
+         */
+        public TaskManager build() {
+            EventBus eventBus = mConfig.mEventBus == null ? buildDefaultBus() : mConfig.mEventBus;
+            Executor executor = mConfig.mExecutor == null
+                    ? buildDefaultExecutor(mConfig) : mConfig.mExecutor;
+
+            return new TaskManager(mConfig, executor, eventBus);
+        }
+    }
+
+    private TaskManager(LoomConfig config, Executor executor, EventBus eventBus) {
+        mLastTaskId = new AtomicInteger(Task.NO_ID);
+        mCurrentTasksById = new ConcurrentHashMap<>();
+        mCurrentTasksIds = new ConcurrentHashMap<>();
+        mKeyedTasks = new ConcurrentHashMap<>();
+        mCurrentGraphsById = new ConcurrentHashMap<>();
+        mCurrentPeriodicById = new ConcurrentHashMap<>();
+        mDelayedRunsById = new ConcurrentHashMap<>();
+        mLanes = new ConcurrentHashMap<>();
+        mTimer = new TimerWheel(config.mLoggingEnabled);
+        mTaskStatuses = Backlog.create(config.mMaxBacklogSize, config.mRingBufferBacklogEnabled);
+        mExecutor = executor;
+        mPriorityDispatcher = config.mPrioritySchedulingEnabled || config.mDeadlineSchedulingEnabled
+                ? new PriorityDispatcher(executor, config.mPriorityAgingInterval, config.mDeadlineSchedulingEnabled)
+                : null;
+        mEventBus = eventBus;
+        mListeners = new ListenerRegistry(config.mLoggingEnabled);
+        mBusListeners = Collections.newSetFromMap(new ConcurrentHashMap<LoomListener<?, ?, ?>, Boolean>());
+        mIsLoggingEnabled = config.mLoggingEnabled;
+        mIsProgressCoalescingEnabled = config.mProgressCoalescingEnabled;
+        mMinProgressInterval = config.mMinProgressInterval;
+        mResultCache = config.mResultCacheSize > 0
+                ? new ResultCache(config.mResultCacheSize, config.mResultCacheTtl) : null;
+        mIsStaleWhileRevalidateEnabled = config.mStaleWhileRevalidateEnabled;
+        mMetrics = config.mMetricsEnabled ? new ConcurrentHashMap<String, TaskMetrics>() : null;
+        mInterceptors = config.mInterceptors.isEmpty() ? null
+                : config.mInterceptors.toArray(new TaskInterceptor[config.mInterceptors.size()]);
+        mMaxPendingTasks = config.mMaxPendingTasks;
+        mBackPressurePolicy = config.mBackPressurePolicy;
+        mPendingCount = new AtomicInteger(0);
+        mPendingQueue = config.mMaxPendingTasks > 0 && config.mBackPressurePolicy == DROP_OLDEST
+                ? new ConcurrentLinkedQueue<TaskRunnable>() : null;
+        if (config.mMaxConcurrentTasks.isEmpty()) {
+            mBulkheads = null;
+        } else {
+            mBulkheads = new HashMap<>();
+            for (Map.Entry<String, Integer> limit : config.mMaxConcurrentTasks.entrySet()) {
+                if (limit.getValue() < 1) {
+                    throw new IllegalArgumentException("Invalid concurrency limit for "
+                            + limit.getKey() + ": " + limit.getValue());
+                }
+                mBulkheads.put(limit.getKey(), new Bulkhead(null, limit.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Cancels the <code>Task</code> with the given ID. If no task with the given ID exists,
+     * this will have no effect.
+     * The task needs to be cancellable, in order for this to work.
+     *
+     * This also cancels {@link TaskGraph}s, in which case the Tasks of the graph that have not
+     * started will not run, and the running ones are cancelled if they are cancellable.
+     *
+     * This also cancels periodic series, in which case no other run starts, and the current run
+     * is cancelled if it is cancellable. Cancelling one run only cancels that run.
+     * @see Task#isCancellable()
+     *
+     * @param taskId the ID of the Task
+     * @throws IllegalStateException if the task with the given ID is not cancellable
+     */
+    public void cancelTask(int taskId) throws IllegalStateException {
+        GraphExecution graph = mCurrentGraphsById.get(taskId);
+        if (graph != null) {
+            if (graph.mStatus.setCancelled()) {
+                abortGraph(graph);
+            }
+            return;
+        }
+        PeriodicExecution periodic = mCurrentPeriodicById.remove(taskId);
+        if (periodic != null) {
+            cancelPeriodic(periodic);
+            return;
+        }
+        WeakReference<Task> ref = mCurrentTasksById.get(taskId);
+        Task task = ref != null ? ref.get() : null;
+        if (task != null && !task.isCancellable()) {
+            // Checked before changing anything, so that the Task still runs
+            throw new IllegalStateException("The task is not cancellable");
+        }
+        if (ref == null || !mCurrentTasksById.remove(taskId, ref)) {
+            return;
+        }
+        if (task != null) {
+            Set<Integer> taskIds = mCurrentTasksIds.get(task.name());
+            if (taskIds != null) {
+                taskIds.remove(taskId);
+            }
+
+            task.cancel();
+            DelayedRun delayed = mDelayedRunsById.remove(taskId);
+            if (delayed != null) {
+                delayed.cancel();
+            }
+            setCancelled(task, taskId);
+        }
+    }
+
+    /**
+     * Moves the status of a Task to CANCELLED, counting it in the metrics the first time.
+     */
+    private void setCancelled(Task task, int taskId) {
+        TaskStatus status = mTaskStatuses.get(taskId);
+        if ((status == null || status.setCancelled()) && task.mMetrics != null) {
+            task.mMetrics.mCancelled.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the metrics of each task name, or an empty map if metrics are not enabled
+     * @see LoomConfig#setMetricsEnabled
+     */
+    @NonNull
+    public Map<String, TaskMetricsSnapshot> getMetrics() {
+        Map<String, TaskMetricsSnapshot> snapshots = new HashMap<>();
+        if (mMetrics != null) {
+            for (TaskMetrics metrics : mMetrics.values()) {
+                snapshots.put(metrics.mTaskName, metrics.snapshot());
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * @param taskName the name of the Tasks
+     * @return the metrics of the Tasks with that name, or null if none has been executed or
+     * metrics are not enabled
+     * @see LoomConfig#setMetricsEnabled
+     */
+    @Nullable
+    public TaskMetricsSnapshot getMetrics(String taskName) {
+        TaskMetrics metrics = mMetrics != null ? mMetrics.get(taskName) : null;
+        return metrics != null ? metrics.snapshot() : null;
+    }
+
+    /**
+     * @return the metrics of the tasks with the given name, created if needed, or null if metrics
+     * are not enabled
+     */
+    @Nullable
+    private TaskMetrics getTaskMetrics(String taskName) {
+        if (mMetrics == null) {
+            return null;
+        }
+        TaskMetrics metrics = mMetrics.get(taskName);
+        if (metrics == null) {
+            TaskMetrics created = new TaskMetrics(taskName);
+            metrics = mMetrics.putIfAbsent(taskName, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Cancels all the tasks with the given name.
+     * If you only want to cancel one specific <code>Task</code>, use {@link #cancelTask} instead.
+     *
+     * @param name the name of the Tasks
+     * @throws IllegalStateException if one of the task with the given name is not cancellable
+     */
+    public void cancelTasks(String name) {
+        Set<Integer> taskIds = mCurrentTasksIds.get(name);
+        if (taskIds != null) {
+            for (int taskId : taskIds) {
+                cancelTask(taskId);
+            }
+        }
+    }
+
+    /**
+     * Retrieves the {@link TaskStatus} of the Task with the given ID. This can return null
+     * for two reasons: Either no Task exist or has existed with this ID, or the Task is too old
+     * for the size of the backlog and has been evicted already.
+     * @see com.nbarraille.loom.TaskManager.Builder#setMaxBacklogSize
+     *
+     * @param taskId the ID of the Task
+     * @return the status of the Task, or null
+     */
+    @Nullable
+    public TaskStatus getTaskStatus(int taskId) {
+        return mTaskStatuses.get(taskId);
+    }
+
+    /**
+     * Executes a Task in the background. The Task will be scheduled to run on the default
+     * Loom <code>Executor</code>, and will start as soon as the Executor is ready.
+     * The {@link Task#runTask()} will be called.
+     *
+     * Each execution gets a new ID, even when executing the same Task object again.
+     *
+     * If the Task has a fresh cached result, it is not run: its cached SuccessEvent is delivered to
+     * the listeners right away, on the calling thread for the background listeners.
+     * @see Task#cacheKey()
+     *
+     * @param task the Task to execute
+     * @return the ID of the Task. You can use this ID to retrieve the status of the Task, or to
+     * cancel it.
+     */
+    public int execute(@NonNull Task task) {
+        int cachedId = executeFromCache(task);
+        if (cachedId != Task.NO_ID) {
+            return cachedId;
+        }
+        awaitPendingRoom();
+        int taskId = register(task);
+        dispatch(task, taskId, null, true);
+        return taskId;
+    }
+
+    /**
+     * Executes a batch of Tasks in the background, as {@link #execute(Task)} would for each of them,
+     * but registering them all at once, which is cheaper than executing them one by one.
+     * The Tasks are handed to the <code>Executor</code> in the order of the collection.
+     *
+     * @param tasks the Tasks to execute
+     * @return the IDs of the Tasks, in the order of the collection
+     * @throws NullPointerException if one of the Tasks is null, in which case none is executed
+     * @throws RejectedExecutionException if the Executor rejects one of the Tasks, in which case it
+     * is cancelled, and so are the ones after it
+     */
+    @NonNull
+    public int[] executeAll(@NonNull Collection<? extends Task> tasks) {
+        for (Task task : tasks) {
+            if (task == null) {
+                throw new NullPointerException("task == null");
+            }
+        }
+        int[] taskIds = new int[tasks.size()];
+        Task[] batch = new Task[taskIds.length];
+        int[] batchIndices = new int[taskIds.length];
+        int count = 0;
+        int index = 0;
+        for (Task task : tasks) {
+            int cachedId = executeFromCache(task);
+            if (cachedId != Task.NO_ID) {
+                taskIds[index] = cachedId;
+            } else {
+                batch[count] = task;
+                batchIndices[count++] = index;
+            }
+            index++;
+        }
+
+        int firstId = mLastTaskId.getAndAdd(count) + 1;
+        TaskStatus[] statuses = new TaskStatus[count];
+        for (int i = 0; i < count; i++) {
+            statuses[i] = new TaskStatus(firstId + i);
+        }
+        mTaskStatuses.putAll(statuses);
+
+        String lastName = null;
+        Set<Integer> nameIds = null;
+        TaskMetrics metrics = null;
+        for (int i = 0; i < count; i++) {
+            Task task = batch[i];
+            int taskId = firstId + i;
+            String name = task.name();
+            if (nameIds == null || !TextUtils.equals(name, lastName)) {
+                nameIds = getCurrentTaskIds(name);
+                metrics = getTaskMetrics(name);
+                lastName = name;
+            }
+            track(task, taskId, nameIds, metrics);
+            taskIds[batchIndices[i]] = taskId;
+        }
+        for (int i = 0; i < count; i++) {
+            awaitPendingRoom();
+            try {
+                dispatch(batch[i], firstId + i, null, true);
+            } catch (RejectedExecutionException e) {
+                // The caller does not get the IDs of the Tasks left, nothing else would clean them up
+                for (int j = i + 1; j < count; j++) {
+                    removeCurrent(batch[j].name(), firstId + j);
+                    setCancelled(batch[j], firstId + j);
+                }
+                throw e;
+            }
+        }
+        return taskIds;
+    }
+
+    /**
+     * Executes a {@link TaskGraph} in the background. The Tasks without dependencies are scheduled
+     * right away, and each of the other Tasks as soon as all its dependencies have succeeded.
+     *
+     * @param graph the graph to execute
+     * @return the ID of the graph. You can use this ID to retrieve the aggregated status of the
+     * graph, or to cancel it.
+     * @throws RejectedExecutionException if the Executor rejects one of the Tasks, in which case the
+     * graph is aborted
+     */
+    public int executeGraph(@NonNull TaskGraph graph) {
+        int graphId = mLastTaskId.incrementAndGet();
+        TaskStatus status = new TaskStatus(graphId);
+        mTaskStatuses.put(status);
+        GraphExecution execution = new GraphExecution(graph, graphId, status);
+        mCurrentGraphsById.put(graphId, execution);
+        for (int i = 0; i < execution.mTasks.length; i++) {
+            Task task = execution.mTasks[i];
+            execution.mTaskIds[i] = register(task);
+            task.mGraph = execution;
+            task.mGraphNode = i;
+        }
+        status.setStarted();
+
+        if (execution.mTasks.length == 0) {
+            finishGraph(execution);
+        }
+        for (int i = 0; i < execution.mRoots.length; i++) {
+            int root = execution.mRoots[i];
+            awaitPendingRoom();
+            try {
+                dispatch(execution.mTasks[root], execution.mTaskIds[root], null, true);
+            } catch (RejectedExecutionException e) {
+                // Aborting the graph does not clean up the roots left, as they are not waiting
+                for (int j = i + 1; j < execution.mRoots.length; j++) {
+                    int left = execution.mRoots[j];
+                    removeCurrent(execution.mTasks[left].name(), execution.mTaskIds[left]);
+                    setCancelled(execution.mTasks[left], execution.mTaskIds[left]);
+                }
+                if (status.setCancelled()) {
+                    abortGraph(execution);
+                }
+                throw e;
+            }
+        }
+        return graphId;
+    }
+
+    /**
+     * Executes a Task in the background after a delay, as {@link #execute(Task)} would. The Task is
+     * registered right away, and stays PENDING until the delay has elapsed.
+     * The delay is driven by the <code>TaskManager</code>'s timer, and is precise to 10ms.
+     *
+     * @param task    the Task to execute
+     * @param delayMs the delay before the Task is handed to the Executor, in milliseconds
+     * @return the ID of the Task. You can use this ID to retrieve the status of the Task, or to
+     * cancel it.
+     */
+    public int executeDelayed(@NonNull Task task, long delayMs) {
+        int taskId = register(task);
+        DelayedRun delayed = new DelayedRun(task, taskId);
+        mDelayedRunsById.put(taskId, delayed);
+        delayed.setTimeout(mTimer.schedule(delayed, delayMs));
+        return taskId;
+    }
+
+    /**
+     * Hands a delayed Task over to the Executor once it is due on the timer. It is removed from
+     * the timer if the Task is cancelled before, so that it does not hold the Task until then.
+     */
+    private class DelayedRun implements Runnable {
+        private final Task mTask;
+        private final int mTaskId;
+        @Nullable private TimerWheel.Timeout mTimeout; // Guarded by this
+        private boolean mIsCancelled = false; // Guarded by this
+
+        DelayedRun(Task task, int taskId) {
+            mTask = task;
+            mTaskId = taskId;
+        }
+
+        synchronized void setTimeout(TimerWheel.Timeout timeout) {
+            if (mIsCancelled) {
+                timeout.cancel();
+            } else {
+                mTimeout = timeout;
+            }
+        }
+
+        synchronized void cancel() {
+            mIsCancelled = true;
+            if (mTimeout != null) {
+                mTimeout.cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mDelayedRunsById.remove(mTaskId) == null || !isCurrent(mTaskId)) {
+                // The task has been cancelled during the delay
+                return;
+            }
+            TaskStatus status = mTaskStatuses.get(mTaskId);
+            if (status != null) {
+                status.setEnqueued();
+            }
+            dispatch(mTask, mTaskId, null, false);
+        }
+    }
+
+    /**
+     * Executes a Task in the background periodically, until it is cancelled. Each run is executed
+     * as {@link #execute(Task)} would, with an ID and a {@link TaskStatus} of its own, so the Task
+     * object is run again each time. A run never starts while the previous one is still running.
+     * The runs are driven by the <code>TaskManager</code>'s timer, and are precise to 10ms.
+     *
+     * @param task           the Task to execute
+     * @param initialDelayMs the delay before the first run, in milliseconds
+     * @param periodMs       the period of the runs, in milliseconds
+     * @param policy         how the runs are spaced, {@link #FIXED_RATE} or {@link #FIXED_DELAY}
+     * @return the ID of the series. You can use this ID to retrieve the status of the series, which
+     * stays STARTED until it is cancelled, or to cancel it.
+     * @throws IllegalArgumentException if the period is not positive
+     */
+    public int executePeriodic(@NonNull Task task, long initialDelayMs, long periodMs,
+                               @SchedulePolicy int policy) {
+        if (periodMs <= 0) {
+            throw new IllegalArgumentException("Invalid period: " + periodMs);
+        }
+        int periodicId = mLastTaskId.incrementAndGet();
+        TaskStatus status = new TaskStatus(periodicId);
+        mTaskStatuses.put(status);
+        PeriodicExecution periodic = new PeriodicExecution(task, periodicId, status, periodMs, policy);
+        mCurrentPeriodicById.put(periodicId, periodic);
+        status.setStarted();
+        periodic.scheduleNext(mTimer, new PeriodicRun(periodic), Math.max(0, initialDelayMs));
+        return periodicId;
+    }
+
+    /**
+     * Starts a run of a periodic series, when it is due on the timer.
+     */
+    private class PeriodicRun implements Runnable {
+        private final PeriodicExecution mPeriodic;
+
+        PeriodicRun(PeriodicExecution periodic) {
+            mPeriodic = periodic;
+        }
+
+        @Override
+        public void run() {
+            if (mPeriodic.isCancelled()) {
+                return;
+            }
+            if (mPeriodic.mPolicy == FIXED_RATE) {
+                mPeriodic.scheduleNext(mTimer, new PeriodicRun(mPeriodic), -1);
+            }
+            Task task = mPeriodic.mTask;
+            if (!mPeriodic.onRunStarted()) {
+                if (mIsLoggingEnabled) {
+                    Log.d(Loom.LOG_TAG, "Skipping a run of " + task.name() + ", the previous one is still running");
+                }
+                return;
+            }
+            task.clearCancelled();
+            int runId = register(task);
+            task.mPeriodic = mPeriodic;
+            mPeriodic.mRunId = runId;
+            if (mPeriodic.isCancelled()) {
+                // The series has been cancelled while registering the run
+                removeCurrent(task.name(), runId);
+                setCancelled(task, runId);
+                mPeriodic.onRunDone();
+                return;
+            }
+            try {
+                dispatch(task, runId, null, false);
+            } catch (RejectedExecutionException e) {
+                // The Executor has been shut down, there will be no more runs
+                if (mCurrentPeriodicById.remove(mPeriodic.mId) != null) {
+                    cancelPeriodic(mPeriodic);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void onPeriodicRunDone(PeriodicExecution periodic) {
+        periodic.onRunDone();
+        if (periodic.mPolicy == FIXED_DELAY) {
+            periodic.scheduleNext(mTimer, new PeriodicRun(periodic), periodic.mPeriodMs);
+        }
+    }
+
+    /**
+     * Cancels a periodic series: no other run starts, and the current one is cancelled if it is
+     * cancellable.
+     */
+    private void cancelPeriodic(PeriodicExecution periodic) {
+        if (!periodic.mStatus.setCancelled()) {
+            return;
+        }
+        periodic.cancelNext();
+        int runId = periodic.mRunId;
+        if (periodic.mTask.isCancellable() && isCurrent(runId)) {
+            cancelTask(runId);
+        }
+    }
+
+    /**
+     * Releases the Tasks of a graph that were waiting for the one that just completed, or aborts
+     * the graph if it did not succeed.
+     */
+    private void onGraphTaskDone(GraphExecution graph, Task task, boolean succeeded) {
+        if (graph.isAborted()) {
+            return;
+        }
+        if (!succeeded) {
+            if (task.isCancelled()) {
+                if (graph.mStatus.setCancelled()) {
+                    abortGraph(graph);
+                }
+            } else {
+                FailureEvent failureEvent = new FailureEvent();
+                if (graph.mStatus.setFailure(failureEvent)) {
+                    abortGraph(graph);
+                    postEvent(graph.mName, failureEvent, null);
+                }
+            }
+            return;
+        }
+
+        int node = task.mGraphNode;
+        int progress = graph.onProgress(node, 100);
+        if (graph.onSucceeded()) {
+            finishGraph(graph);
+            return;
+        }
+        postGraphProgress(graph, progress);
+        for (int dependent : graph.mDependents[node]) {
+            // The abort check comes after the countdown, so that the aborting thread either sees
+            // the task as released, or this thread sees the graph as aborted
+            if (graph.onDependencyDone(dependent) && !graph.isAborted()) {
+                dispatch(graph.mTasks[dependent], graph.mTaskIds[dependent], null, false);
+            }
+        }
+    }
+
+    private void finishGraph(GraphExecution graph) {
+        SuccessEvent successEvent = new SuccessEvent();
+        if (graph.mStatus.setSuccess(successEvent)) {
+            mCurrentGraphsById.remove(graph.mId);
+            postEvent(graph.mName, successEvent, null);
+        }
+    }
+
+    /**
+     * Cancels the Tasks of a graph that has failed or been cancelled. The ones that have not been
+     * released will never run, the released ones will skip their execution, and the running ones
+     * are interrupted if they are cancellable.
+     */
+    private void abortGraph(GraphExecution graph) {
+        mCurrentGraphsById.remove(graph.mId);
+        for (int i = 0; i < graph.mTasks.length; i++) {
+            Task task = graph.mTasks[i];
+            int taskId = graph.mTaskIds[i];
+            if (graph.isWaiting(i)) {
+                removeCurrent(task.name(), taskId);
+                setCancelled(task, taskId);
+            } else if (task.isCancellable() && isCurrent(taskId)) {
+                cancelTask(taskId);
+            }
+        }
+    }
+
+    private void postGraphProgress(GraphExecution graph, int progress) {
+        if (progress >= 0) {
+            postEvent(graph.mName, new ProgressEvent(progress), null);
+        }
+    }
+
+    /**
+     * Executes a Task in the background, unless another Task executed with the same key is still
+     * pending or running. In that case, the conflict is resolved with the given policy:
+     * <ul>
+     *     <li>{@link #JOIN}: the new Task is not executed, and the ID of the current one is returned</li>
+     *     <li>{@link #REPLACE}: the current Task, and the ones queued after it, are cancelled, and the
+     *     new one is executed. The cancelled Tasks need to be cancellable.</li>
+     *     <li>{@link #QUEUE}: the new Task stays pending until the current one, and the ones already
+     *     queued, finish, even if they have been cancelled</li>
+     *     <li>{@link #REJECT}: the new Task is not executed, and {@link Task#NO_ID} is returned</li>
+     * </ul>
+     * Tasks with a fresh cached result are not run, as with {@link #execute(Task)}.
+     *
+     * @param task   the Task to execute
+     * @param key    the key identifying the Tasks that conflict with each other
+     * @param policy the policy resolving the conflicts
+     * @return the ID of the Task, or of the Task it joined, or {@link Task#NO_ID} if it was rejected
+     * @throws IllegalStateException if the policy is REPLACE and the current Task is not cancellable
+     */
+    public int execute(@NonNull Task task, @NonNull String key, @ConflictPolicy int policy)
+            throws IllegalStateException {
+        int cachedId = executeFromCache(task);
+        if (cachedId != Task.NO_ID) {
+            return cachedId;
+        }
+        awaitPendingRoom();
+        return executeKeyed(task, key, policy);
+    }
+
+    private int executeKeyed(Task task, String key, @ConflictPolicy int policy) {
+        KeyedTasks keyed;
+        int taskId;
+        while (true) {
+            keyed = mKeyedTasks.get(key);
+            if (keyed == null) {
+                KeyedTasks created = new KeyedTasks(key);
+                keyed = mKeyedTasks.putIfAbsent(key, created);
+                if (keyed == null) {
+                    keyed = created;
+                }
+            }
+            synchronized (keyed) {
+                if (keyed.mIsRemoved) {
+                    continue;
+                }
+                // A cancelled Task keeps the key until it is done, as it may still be running
+                if (policy == QUEUE && keyed.mCurrentId != Task.NO_ID) {
+                    taskId = register(task);
+                    keyed.mQueued.add(new QueuedTask(task, taskId));
+                    return taskId;
+                }
+                if (isCurrent(keyed.mCurrentId)) {
+                    switch (policy) {
+                        case JOIN:
+                            return keyed.mCurrentId;
+                        case REJECT:
+                            return Task.NO_ID;
+                        case REPLACE:
+                            if (!isCancellable(keyed.mCurrentId)) {
+                                throw new IllegalStateException("The task is not cancellable");
+                            }
+                            for (QueuedTask queued : keyed.mQueued) {
+                                if (!queued.mTask.isCancellable()) {
+                                    throw new IllegalStateException("The task is not cancellable");
+                                }
+                            }
+                            cancelTask(keyed.mCurrentId);
+                            for (QueuedTask queued : keyed.mQueued) {
+                                cancelTask(queued.mTaskId);
+                            }
+                            keyed.mQueued.clear();
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Invalid conflict policy: " + policy);
+                    }
+                }
+                taskId = register(task);
+                keyed.mCurrentId = taskId;
+                break;
+            }
+        }
+        // Outside of the monitor, as the back-pressure policy may run the Task on this thread
+        dispatch(task, taskId, keyed, true);
+        return taskId;
+    }
+
+    /**
+     * Delivers the cached result of a Task, if it has one. A stale result is only delivered if
+     * stale-while-revalidate is enabled, in which case the Task is executed again to refresh it,
+     * joining the refresh already in progress if there is one.
+     * @return the ID of the Task, or {@link Task#NO_ID} if it has to be executed normally
+     */
+    private int executeFromCache(Task task) {
+        String cacheKey = mResultCache != null ? task.cacheKey() : null;
+        if (cacheKey == null) {
+            return Task.NO_ID;
+        }
+        ResultCache.Entry entry = mResultCache.get(cacheKey);
+        if (entry == null) {
+            return Task.NO_ID;
+        }
+        if (mResultCache.isFresh(entry)) {
+            int taskId = mLastTaskId.incrementAndGet();
+            task.setId(taskId);
+            TaskStatus status = new TaskStatus(taskId);
+            SuccessEvent successEvent = entry.copyEvent();
+            status.setStarted();
+            status.setSuccess(successEvent);
+            mTaskStatuses.put(status);
+            TaskMetrics metrics = getTaskMetrics(task.name());
+            if (metrics != null) {
+                metrics.mSubmitted.incrementAndGet();
+                metrics.mSucceeded.incrementAndGet();
+            }
+            postEvent(task, successEvent);
+            return taskId;
+        }
+        if (!mIsStaleWhileRevalidateEnabled) {
+            return Task.NO_ID;
+        }
+        postEvent(task, entry.copyEvent());
+        // The '\0' prefix keeps the refreshes from conflicting with the keys used by callers
+        return executeKeyed(task, '\0' + cacheKey, JOIN);
+    }
+
+    /**
+     * Registers a new Task as pending, without executing it yet.
+     * @return the ID of the Task
+     */
+    private int register(Task task) {
+        int taskId = mLastTaskId.incrementAndGet();
+        mTaskStatuses.put(new TaskStatus(taskId));
+        String name = task.name();
+        track(task, taskId, getCurrentTaskIds(name), getTaskMetrics(name));
+        return taskId;
+    }
+
+    /**
+     * Binds a Task to its new ID, clearing what is left of its previous executions, and tracks it
+     * as current. Its status must already be in the backlog.
+     * @param nameIds the IDs of the current tasks with the name of that Task
+     * @param metrics the metrics of the tasks with that name, or null if not enabled
+     */
+    private void track(Task task, int taskId, Set<Integer> nameIds, @Nullable TaskMetrics metrics) {
+        task.setId(taskId);
+        task.mGraph = null;
+        task.mPeriodic = null;
+        task.mMetrics = metrics;
+        if (metrics != null) {
+            metrics.mSubmitted.incrementAndGet();
+        }
+        mCurrentTasksById.put(taskId, new WeakReference<>(task));
+        nameIds.add(taskId);
+    }
+
+    /**
+     * @return whether the Task with the given ID is pending or running, and has not been cancelled
+     */
+    private boolean isCurrent(int taskId) {
+        return taskId != Task.NO_ID && mCurrentTasksById.containsKey(taskId);
+    }
+
+    private boolean isCancellable(int taskId) {
+        WeakReference<Task> ref = mCurrentTasksById.get(taskId);
+        Task task = ref != null ? ref.get() : null;
+        return task == null || task.isCancellable();
+    }
+
+    /**
+     * Hands a registered Task over to the Executor.
+     * @param keyed the Tasks sharing the conflict key of that Task, if it has one
+     * @param bounded whether the Task counts against the maximum number of pending tasks. Tasks
+     *                released by the completion of others are not, so that workers never wait.
+     */
+    private void dispatch(Task task, int taskId, @Nullable KeyedTasks keyed, boolean bounded) {
+        TaskRunnable runnable = new TaskRunnable(task, taskId, keyed);
+        if (bounded && mMaxPendingTasks > 0 && !admit(runnable)) {
+            return;
+        }
+        if (acquireSlots(runnable, true)) {
+            submit(runnable);
+        }
+    }
+
+    /**
+     * Runs a registered Task on the Executor, or drops it before it starts. Whichever comes first
+     * claims it, so that it is cleaned up exactly once.
+     */
+    private class TaskRunnable implements Runnable {
+        final Task mTask;
+        final int mTaskId;
+        final String mTaskName;
+        @Nullable private final KeyedTasks mKeyed;
+        @Nullable private final GraphExecution mGraph;
+        @Nullable private final PeriodicExecution mPeriodic;
+        private final AtomicBoolean mIsClaimed = new AtomicBoolean(false);
+        private volatile boolean mIsCounted = false; // Whether it counts as pending
+        private volatile int mAttempt = 1;
+        @Nullable final String mLaneKey;
+
+        TaskRunnable(Task task, int taskId, @Nullable KeyedTasks keyed) {
+            mTask = task;
+            mTaskId = taskId;
+            mTaskName = task.name();
+            mKeyed = keyed;
+            mGraph = task.mGraph;
+            mPeriodic = task.mPeriodic;
+            mLaneKey = task.laneKey();
+        }
+
+        @Override
+        public void run() {
+            if (!claim()) {
+                return;
+            }
+            attempt();
+        }
+
+        /**
+         * Runs the Task, then completes it, unless it failed and is parked until its next attempt.
+         */
+        private void attempt() {
+            int outcome = FAILED;
+            try {
+                if (mGraph != null && mGraph.isAborted()) {
+                    setCancelled(mTask, mTaskId);
+                    return;
+                }
+                outcome = runTask(mTask, mTaskId, mAttempt);
+            } finally {
+                if (mTask.isCancelled()) {
+                    // The cancellation of the Task cannot interrupt the thread anymore, clears it
+                    // so that it does not reach the next job of the thread
+                    Thread.interrupted();
+                }
+                if (outcome == RETRYING) {
+                    retryLater();
+                } else {
+                    finish(outcome == SUCCEEDED);
+                }
+            }
+        }
+
+        private void retryLater() {
+            RetryPolicy policy = mTask.retryPolicy();
+            long delayMs = policy != null ? policy.getDelay(mAttempt) : 0;
+            mAttempt++;
+            mTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handOver(mTask, mTaskId, new Runnable() {
+                            @Override
+                            public void run() {
+                                attempt();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        try {
+                            setCancelled(mTask, mTaskId);
+                        } finally {
+                            finish(false);
+                        }
+                    }
+                }
+            }, delayMs);
+        }
+
+        /**
+         * Cancels the Task if it has not started yet.
+         * @return whether it had not started yet
+         */
+        boolean drop() {
+            if (!claim()) {
+                return false;
+            }
+            try {
+                setCancelled(mTask, mTaskId);
+            } finally {
+                finish(false);
+            }
+            return true;
+        }
+
+        /**
+         * Fails the Task without running it, if it has not started yet.
+         */
+        void fail() {
+            if (!claim()) {
+                return;
+            }
+            try {
+                FailureEvent failureEvent = mTask.buildFailureEvent();
+                TaskStatus status = mTaskStatuses.get(mTaskId);
+                if (status != null && status.setStarted()) {
+                    status.setFailure(failureEvent);
+                }
+                if (mTask.mMetrics != null) {
+                    mTask.mMetrics.mFailed.incrementAndGet();
+                }
+                postEvent(mTask, failureEvent);
+            } finally {
+                finish(false);
+            }
+        }
+
+        boolean isClaimed() {
+            return mIsClaimed.get();
+        }
+
+        private boolean claim() {
+            if (!mIsClaimed.compareAndSet(false, true)) {
+                return false;
+            }
+            if (mIsCounted) {
+                onPendingTaskClaimed();
+            }
+            return true;
+        }
+
+        private void finish(boolean succeeded) {
+            removeCurrent(mTaskName, mTaskId);
+            if (mKeyed != null) {
+                onKeyedTaskDone(mKeyed, mTaskId);
+            }
+            if (mGraph != null) {
+                onGraphTaskDone(mGraph, mTask, succeeded);
+            }
+            releaseSlots(this);
+            if (mPeriodic != null) {
+                onPeriodicRunDone(mPeriodic);
+            }
+        }
+    }
+
+    /**
+     * Counts a Task as pending, applying the back-pressure policy if there are too many already.
+     * @return whether the Task still has to be handed to the Executor
+     */
+    private boolean admit(TaskRunnable runnable) {
+        if (!tryIncrementPendingCount()) {
+            switch (mBackPressurePolicy) {
+                case RUN_ON_CALLER:
+                    if (acquireSlots(runnable, false)) {
+                        runnable.run();
+                        return false;
+                    }
+                    // It has to wait for its bulkhead, as a pending task
+                    mPendingCount.incrementAndGet();
+                    break;
+                case FAIL_FAST:
+                    runnable.fail();
+                    return false;
+                case DROP_OLDEST:
+                    dropOldestPendingTask();
+                    mPendingCount.incrementAndGet();
+                    break;
+                default:
+                    // The caller has waited for room already, concurrent callers may overshoot
+                    mPendingCount.incrementAndGet();
+                    break;
+            }
+        }
+        runnable.mIsCounted = true;
+        if (mPendingQueue != null) {
+            mPendingQueue.add(runnable);
+        }
+        return true;
+    }
+
+    private boolean tryIncrementPendingCount() {
+        while (true) {
+            int count = mPendingCount.get();
+            if (count >= mMaxPendingTasks) {
+                return false;
+            }
+            if (mPendingCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
         }
+    }
 
-        private static Executor buildDefaultExecutor() {
-            return Executors.newFixedThreadPool(2);
+    private void dropOldestPendingTask() {
+        TaskRunnable oldest;
+        while ((oldest = mPendingQueue.poll()) != null) {
+            if (oldest.drop()) {
+                return;
+            }
         }
+    }
 
-        private static EventBus buildDefaultBus() {
-            return EventBus.builder().logNoSubscriberMessages(false)
-                    .sendNoSubscriberEvent(false).build();
+    private void onPendingTaskClaimed() {
+        int count = mPendingCount.decrementAndGet();
+        if (mPendingQueue != null) {
+            // The claimed tasks are removed lazily, most of them are at the head of the queue
+            TaskRunnable head;
+            while ((head = mPendingQueue.peek()) != null && head.isClaimed()) {
+                mPendingQueue.remove(head);
+            }
+        }
+        if (mBackPressurePolicy == BLOCK && count == mMaxPendingTasks - 1) {
+            synchronized (mPendingLock) {
+                mPendingLock.notifyAll();
+            }
         }
+    }
 
-        /**
-         * @return the TaskManager configured with this Builder
-         */
-        public TaskManager build() {
-            EventBus eventBus = mConfig.mEventBus == null ? buildDefaultBus() : mConfig.mEventBus;
-            Executor executor = mConfig.mExecutor == null ? buildDefaultExecutor() : mConfig.mExecutor;
+    /**
+     * Takes the slots a Task needs to run: the one of its lane, then one of the bulkhead of its
+     * name, if it has them.
+     * @param wait whether the Task is queued in the first bulkhead that is full
+     * @return whether the Task can be run now
+     */
+    private boolean acquireSlots(TaskRunnable runnable, boolean wait) {
+        if (runnable.mLaneKey != null) {
+            while (true) {
+                Bulkhead lane = mLanes.get(runnable.mLaneKey);
+                if (lane == null) {
+                    Bulkhead created = new Bulkhead(runnable.mLaneKey, 1);
+                    lane = mLanes.putIfAbsent(runnable.mLaneKey, created);
+                    if (lane == null) {
+                        lane = created;
+                    }
+                }
+                synchronized (lane) {
+                    if (lane.mIsRemoved) {
+                        continue;
+                    }
+                    if (!acquireSlot(lane, runnable, wait)) {
+                        return false;
+                    }
+                    break;
+                }
+            }
+        }
+        Bulkhead bulkhead = mBulkheads != null ? mBulkheads.get(runnable.mTaskName) : null;
+        if (bulkhead != null) {
+            synchronized (bulkhead) {
+                return acquireSlot(bulkhead, runnable, wait);
+            }
+        }
+        return true;
+    }
 
-            boolean loggingEnabled = mConfig.mLoggingEnabled;
-            return new TaskManager(executor, eventBus, loggingEnabled, mConfig.mMaxBacklogSize);
+    /**
+     * Must be called holding the monitor of the bulkhead. A Task that has been claimed does not
+     * get a slot, so that whoever claims it finds the slots it holds when releasing them.
+     * @return whether the Task holds a slot of the bulkhead
+     */
+    private static boolean acquireSlot(Bulkhead bulkhead, TaskRunnable runnable, boolean wait) {
+        if (bulkhead.mRunning.contains(runnable)) {
+            return true;
         }
+        if (runnable.isClaimed()) {
+            return false;
+        }
+        if (bulkhead.mRunning.size() < bulkhead.mMaxRunning) {
+            bulkhead.mRunning.add(runnable);
+            return true;
+        }
+        if (wait) {
+            bulkhead.mWaiting.add(runnable);
+        }
+        return false;
     }
 
-    private TaskManager(Executor executor, EventBus eventBus, boolean loggingEnabled,
-                        int maxBacklogSize) {
-        mCurrentTasksById = new HashMap<>();
-        mCurrentTasksIds = new HashMap<>();
-        mTaskStatuses = new LruCache<>(maxBacklogSize);
-        mExecutor = executor;
-        mEventBus = eventBus;
-        mIsLoggingEnabled = loggingEnabled;
+    private void releaseSlots(TaskRunnable runnable) {
+        Bulkhead bulkhead = mBulkheads != null ? mBulkheads.get(runnable.mTaskName) : null;
+        if (bulkhead != null) {
+            releaseSlot(bulkhead, runnable);
+        }
+        Bulkhead lane = runnable.mLaneKey != null ? mLanes.get(runnable.mLaneKey) : null;
+        if (lane != null) {
+            releaseSlot(lane, runnable);
+        }
     }
 
     /**
-     * Cancels the <code>Task</code> with the given ID. If no task with the given ID exists,
-     * this will have no effect.
-     * The task needs to be cancellable, in order for this to work.
-     * @see Task#isCancellable()
-     *
-     * @param taskId the ID of the Task
-     * @throws IllegalStateException if the task with the given ID is not cancellable
+     * Hands the slot of a Task that is done over to the next Task waiting in the bulkhead, skipping
+     * the ones that have been claimed while waiting, and removes the lane if nothing is left in it.
      */
-    public void cancelTask(int taskId) throws IllegalStateException {
-        Task task = null;
-        synchronized (mCurrentTasksById) {
-            WeakReference<Task> ref = mCurrentTasksById.remove(taskId);
-            if (ref != null) {
-                task = ref.get();
-                Set<Integer> taskIds = mCurrentTasksIds.get(task.name());
-                if (taskIds != null) {
-                    taskIds.remove(taskId);
-                }
+    private void releaseSlot(Bulkhead bulkhead, TaskRunnable runnable) {
+        TaskRunnable next;
+        synchronized (bulkhead) {
+            if (!bulkhead.mRunning.remove(runnable)) {
+                return;
             }
+            do {
+                next = bulkhead.mWaiting.poll();
+            } while (next != null && next.isClaimed());
+            if (next != null) {
+                bulkhead.mRunning.add(next);
+            } else if (bulkhead.mLaneKey != null && bulkhead.mRunning.isEmpty()) {
+                bulkhead.mIsRemoved = true;
+                mLanes.remove(bulkhead.mLaneKey, bulkhead);
+            }
+        }
+        // The next Task may still have to wait for the bulkhead of its name
+        if (next != null && acquireSlots(next, true)) {
+            submit(next);
         }
+    }
 
-        if (task != null) {
-            task.cancel();
-            TaskStatus status = mTaskStatuses.get(taskId);
-            if (status != null) {
-                status.setCancelled();
+    /**
+     * Blocks the calling thread until there is room for another pending task, if the back-pressure
+     * policy is {@link #BLOCK}.
+     */
+    private void awaitPendingRoom() {
+        if (mMaxPendingTasks <= 0 || mBackPressurePolicy != BLOCK
+                || mPendingCount.get() < mMaxPendingTasks) {
+            return;
+        }
+        synchronized (mPendingLock) {
+            try {
+                while (mPendingCount.get() >= mMaxPendingTasks) {
+                    mPendingLock.wait();
+                }
+            } catch (InterruptedException e) {
+                // The task is admitted anyway, the caller gets to see the interruption
+                Thread.currentThread().interrupt();
             }
         }
     }
 
+    private void removeCurrent(String taskName, int taskId) {
+        mCurrentTasksById.remove(taskId);
+        Set<Integer> taskIds = mCurrentTasksIds.get(taskName);
+        if (taskIds != null) {
+            taskIds.remove(taskId);
+        }
+    }
+
     /**
-     * Cancels all the tasks with the given name.
-     * If you only want to cancel one specific <code>Task</code>, use {@link #cancelTask} instead.
-     *
-     * @param name the name of the Tasks
-     * @throws IllegalStateException if one of the task with the given name is not cancellable
+     * Executes the next Task queued with the same key as the Task that just completed, if any.
      */
-    public void cancelTasks(String name) {
-        synchronized (mCurrentTasksById) {
-            Set<Integer> taskIds = mCurrentTasksIds.get(name);
-            if (taskIds != null) {
-                for (int taskId : taskIds) {
-                    cancelTask(taskId);
+    private void onKeyedTaskDone(KeyedTasks keyed, int taskId) {
+        synchronized (keyed) {
+            if (keyed.mCurrentId != taskId) {
+                return;
+            }
+            keyed.mCurrentId = Task.NO_ID;
+            QueuedTask next;
+            while ((next = keyed.mQueued.poll()) != null) {
+                if (isCurrent(next.mTaskId)) {
+                    keyed.mCurrentId = next.mTaskId;
+                    dispatch(next.mTask, next.mTaskId, keyed, false);
+                    return;
                 }
             }
+            keyed.mIsRemoved = true;
+            mKeyedTasks.remove(keyed.mKey);
         }
     }
 
     /**
-     * Retrieves the {@link TaskStatus} of the Task with the given ID. This can return null
-     * for two reasons: Either no Task exist or has existed with this ID, or the Task is too old
-     * for the size of the backlog and has been evicted already.
-     * @see com.nbarraille.loom.TaskManager.Builder#setMaxBacklogSize
-     *
-     * @param taskId the ID of the Task
-     * @return the status of the Task, or null
+     * Hands a Task over to the Executor, through the priority queue if enabled.
+     * If the Executor rejects it, the Task is cancelled before the exception is rethrown.
      */
-    @Nullable
-    public TaskStatus getTaskStatus(int taskId) {
-        return mTaskStatuses.get(taskId);
+    private void submit(TaskRunnable runnable) {
+        try {
+            handOver(runnable.mTask, runnable.mTaskId, runnable);
+        } catch (RejectedExecutionException e) {
+            runnable.drop();
+            throw e;
+        }
+    }
+
+    private void handOver(Task task, int taskId, Runnable runnable) {
+        if (mPriorityDispatcher != null) {
+            mPriorityDispatcher.dispatch(task, taskId, runnable);
+        } else {
+            mExecutor.execute(runnable);
+        }
     }
 
     /**
-     * Executes a Task in the background. The Task will be scheduled to run on the default
-     * Loom <code>Executor</code>, and will start as soon as the Executor is ready.
-     * The {@link Task#runTask()} will be called.
-     *
-     * @param task the Task to execute
-     * @return the ID of the Task. You can use this ID to retrieve the status of the Task, or to
-     * cancel it.
+     * @return the set of IDs of the current tasks with the given name, created if needed
      */
-    public int execute(@NonNull final Task task) {
-        final int taskId = task.getId();
-        final String taskName = task.name();
-        mTaskStatuses.put(taskId, new TaskStatus());
-        synchronized (mCurrentTasksById) {
-            mCurrentTasksById.put(taskId, new WeakReference<>(task));
-            Set<Integer> taskIds = mCurrentTasksIds.get(taskName);
+    private Set<Integer> getCurrentTaskIds(String taskName) {
+        Set<Integer> taskIds = mCurrentTasksIds.get(taskName);
+        if (taskIds == null) {
+            Set<Integer> created = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+            taskIds = mCurrentTasksIds.putIfAbsent(taskName, created);
             if (taskIds == null) {
-                taskIds = new HashSet<>();
-                mCurrentTasksIds.put(taskName, taskIds);
+                taskIds = created;
             }
-            taskIds.add(taskId);
         }
-        mExecutor.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    runTask(task);
-                } finally {
-                    synchronized (mCurrentTasksById) {
-                        mCurrentTasksById.remove(taskId);
-                        Set<Integer> taskIds = mCurrentTasksIds.get(taskName);
-                        if (taskIds != null) {
-                            taskIds.remove(taskId);
-                        }
-                    }
-                }
-            }
-        });
-        return taskId;
+        return taskIds;
     }
 
     /**
@@ -279,7 +1732,12 @@ public class TaskManager {
      * @param listener the listener to register, cannot be null
      */
     public void registerListener(@NonNull LoomListener listener) {
-        mEventBus.register(listener);
+        if (listener instanceof RoutedListener) {
+            mListeners.register((RoutedListener<?, ?, ?>) listener);
+        } else {
+            mEventBus.register(listener);
+            mBusListeners.add(listener);
+        }
     }
 
     /**
@@ -299,7 +1757,7 @@ public class TaskManager {
      *                 refers to a task that has a different {@link Task#name}
      */
     public void registerListener(@NonNull final LoomListener listener, int taskId) {
-        mEventBus.register(listener);
+        registerListener(listener);
         TaskStatus status = getTaskStatus(taskId);
         if (status != null) {
             if (status.isFinished()) {
@@ -340,7 +1798,11 @@ public class TaskManager {
      * @param listener the listener to register, cannot be null
      */
     public void unregisterListener(@NonNull LoomListener listener) {
-        mEventBus.unregister(listener);
+        if (listener instanceof RoutedListener) {
+            mListeners.unregister((RoutedListener<?, ?, ?>) listener);
+        } else if (mBusListeners.remove(listener)) {
+            mEventBus.unregister(listener);
+        }
     }
 
     /**
@@ -351,24 +1813,298 @@ public class TaskManager {
     }
 
     final void postEvent(Task task, @Nullable Event event) {
+        postEvent(task, event, null);
+    }
+
+    private void postEvent(Task task, @Nullable Event event, @Nullable ProgressCoalescer coalescer) {
+        postEvent(task.name(), event, coalescer);
+    }
+
+    private void postEvent(String taskName, @Nullable Event event, @Nullable ProgressCoalescer coalescer) {
         if (event != null) {
-            event.setTaskName(task.name());
-            mEventBus.post(event);
+            event.setTaskName(taskName);
+            TaskInterceptor[] interceptors = mInterceptors;
+            if (interceptors != null) {
+                interceptBeforePost(interceptors, event);
+            }
+            mListeners.post(event, coalescer != null ? coalescer.mPendingUiEvent : null);
+            if (!mBusListeners.isEmpty()) {
+                mEventBus.post(event);
+            }
+            if (interceptors != null) {
+                interceptAfterPost(interceptors, event);
+            }
         }
     }
 
-    private void runTask(@NonNull Task task) {
-        if (task.isCancelled()) {
+    private void interceptBeforeRun(TaskInterceptor[] interceptors, Task task, int taskId) {
+        for (TaskInterceptor interceptor : interceptors) {
+            try {
+                interceptor.beforeRun(task, task.name(), taskId);
+            } catch (RuntimeException e) {
+                logInterceptorError(e);
+            }
+        }
+    }
+
+    private void interceptAfterRun(TaskInterceptor[] interceptors, Task task, int taskId, @Nullable Exception error) {
+        for (int i = interceptors.length - 1; i >= 0; i--) {
+            try {
+                if (error != null) {
+                    interceptors[i].onError(task, task.name(), taskId, error);
+                }
+                interceptors[i].afterRun(task, task.name(), taskId);
+            } catch (RuntimeException e) {
+                logInterceptorError(e);
+            }
+        }
+    }
+
+    private void interceptBeforePost(TaskInterceptor[] interceptors, Event event) {
+        for (TaskInterceptor interceptor : interceptors) {
+            try {
+                interceptor.beforePost(event);
+            } catch (RuntimeException e) {
+                logInterceptorError(e);
+            }
+        }
+    }
+
+    private void interceptAfterPost(TaskInterceptor[] interceptors, Event event) {
+        for (int i = interceptors.length - 1; i >= 0; i--) {
+            try {
+                interceptors[i].afterPost(event);
+            } catch (RuntimeException e) {
+                logInterceptorError(e);
+            }
+        }
+    }
+
+    private void logInterceptorError(RuntimeException e) {
+        if (mIsLoggingEnabled) {
+            Log.e(Loom.LOG_TAG, "Error while running interceptor: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sends the progress of a Task to the listeners, coalescing it if enabled.
+     * This must be called from the thread running the Task.
+     */
+    final void postProgress(Task task, int progress) {
+        ProgressCoalescer coalescer = task.mProgressCoalescer;
+        if (coalescer == null) {
+            sendProgress(task, progress, null);
+            return;
+        }
+        synchronized (coalescer) {
+            int deliverable = coalescer.onProgress(progress);
+            if (deliverable >= 0) {
+                sendProgress(task, deliverable, coalescer);
+            } else {
+                scheduleTrailingProgress(task, coalescer);
+            }
+        }
+    }
+
+    /**
+     * Schedules the delivery of the progress of a Task held back by the coalescing at the end of the
+     * interval, so that it is not stale while the Task posts nothing else. It is handed to the
+     * Executor then, as the listeners must not run on the timer thread.
+     * This must be called holding the monitor of the coalescer.
+     */
+    private void scheduleTrailingProgress(final Task task, final ProgressCoalescer coalescer) {
+        long delayMs = coalescer.scheduleFlush();
+        if (delayMs < 0) {
             return;
         }
-        final TaskStatus status = mTaskStatuses.get(task.getId());
+        final Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (coalescer) {
+                    int progress = coalescer.onFlushDue();
+                    if (progress < 0) {
+                        scheduleTrailingProgress(task, coalescer);
+                    } else if (!task.isCancelled()) {
+                        sendProgress(task, progress, coalescer);
+                    }
+                }
+            }
+        };
+        mTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mExecutor.execute(delivery);
+                } catch (RejectedExecutionException e) {
+                    // The progress is still delivered when the Task finishes
+                }
+            }
+        }, delayMs);
+    }
+
+    /**
+     * Delivers a progress to the listeners. The ProgressEvent is only built if some of them need it.
+     */
+    private void sendProgress(Task task, int progress, @Nullable ProgressCoalescer coalescer) {
+        boolean needsEvent = mListeners.postProgressValue(task, progress);
+        if (needsEvent || !mBusListeners.isEmpty()) {
+            postEvent(task, task.buildProgressEvent(progress), coalescer);
+        }
+        GraphExecution graph = task.mGraph;
+        if (graph != null && !graph.isAborted()) {
+            postGraphProgress(graph, graph.onProgress(task.mGraphNode, progress));
+        }
+    }
+
+    /**
+     * Sends the latest progress of a Task that was held back by the coalescing, if any.
+     */
+    private void flushProgress(Task task) {
+        ProgressCoalescer coalescer = task.mProgressCoalescer;
+        if (coalescer != null) {
+            synchronized (coalescer) {
+                int progress = coalescer.flush();
+                if (progress >= 0 && !task.isCancelled()) {
+                    sendProgress(task, progress, coalescer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Times a Task out. It runs at most once, on the timer thread when the timeout expires, or on
+     * the worker finding the timeout expired, which then waits for it to be done. The interruption
+     * of the Task is thus delivered before the worker clears it.
+     */
+    private static class TimeoutAction implements Runnable {
+        private final Task mTask;
+        private boolean mIsDone = false; // Guarded by this
+
+        TimeoutAction(Task task) {
+            mTask = task;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (!mIsDone) {
+                mIsDone = true;
+                mTask.timeOut();
+            }
+        }
+    }
+
+    /**
+     * Cancels the timeout of a Task that is done running.
+     * @return whether the timeout expired before
+     */
+    private static boolean hasTimedOut(@Nullable TimerWheel.Timeout timeout) {
+        return timeout != null && !timeout.cancel();
+    }
+
+    /**
+     * Completes a Task whose timeout expired, however its run ended: it is cancelled, then failed
+     * with a FailureEvent marked as a timeout, or retried.
+     * @return {@link #FAILED}, or {@link #RETRYING} if the Task has to be run again
+     */
+    private int onTimedOut(Task task, int taskId, @Nullable TaskStatus status, long startTimeNanos,
+                           long timeoutMs, TimeoutAction timeoutAction, int attempt) {
+        timeoutAction.run();
+        // Clears the interruption of the timeout, in case the Task did not
+        Thread.interrupted();
+        TimeoutException error = new TimeoutException("The task timed out after " + timeoutMs + "ms");
+        boolean retry = shouldRetry(task, taskId, attempt, error);
+        TaskMetrics metrics = task.mMetrics;
+        if (metrics != null) {
+            metrics.mRunTime.record(System.nanoTime() - startTimeNanos);
+            if (!retry) {
+                metrics.mFailed.incrementAndGet();
+            }
+        }
+        TaskInterceptor[] interceptors = mInterceptors;
+        if (interceptors != null) {
+            interceptAfterRun(interceptors, task, taskId, error);
+        }
+        try {
+            task.onCancelled();
+        } catch (Exception e) {
+            if (mIsLoggingEnabled) {
+                Log.e(Loom.LOG_TAG, "Error while performing onCancelled(): " + e.getMessage(), e);
+            }
+        }
+        if (retry) {
+            task.clearTimeOut();
+            return RETRYING;
+        }
+        FailureEvent failureEvent = task.buildFailureEvent();
+        if (failureEvent != null) {
+            failureEvent.setTimeout(true);
+        }
+        try {
+            if (status != null) {
+                status.setFailure(failureEvent);
+            }
+            task.onFailure(error);
+        } catch (Exception e) {
+            if (mIsLoggingEnabled) {
+                Log.e(Loom.LOG_TAG, "Error while performing onFailure(): " + e.getMessage(), e);
+            }
+        }
+        postEvent(task, failureEvent);
+        return FAILED;
+    }
+
+    /**
+     * Runs one attempt of a Task.
+     * @return {@link #SUCCEEDED}, {@link #FAILED} (or cancelled), or {@link #RETRYING} if it failed
+     * and has to be run again
+     */
+    private int runTask(@NonNull Task task, int taskId, int attempt) {
+        if (task.isCancelled()) {
+            return FAILED;
+        }
+        final TaskStatus status = mTaskStatuses.get(taskId);
         if (status != null) {
-            status.setStarted();
+            if (attempt == 1 ? !status.setStarted() : !status.isStarted()) {
+                // The task has been cancelled since
+                return FAILED;
+            }
+            status.setAttempt(attempt);
+        }
+        task.mProgressCoalescer = mIsProgressCoalescingEnabled
+                ? new ProgressCoalescer(mMinProgressInterval) : null;
+        task.mProgressValueSlot = null;
+        TaskMetrics metrics = task.mMetrics;
+        long startTimeNanos = 0;
+        if (metrics != null) {
+            startTimeNanos = System.nanoTime();
+            if (attempt == 1) {
+                metrics.mStarted.incrementAndGet();
+                if (status != null) {
+                    metrics.mQueueWait.record(startTimeNanos - status.getEnqueueTimeNanos());
+                }
+            }
+        }
+        TaskInterceptor[] interceptors = mInterceptors;
+        if (interceptors != null) {
+            interceptBeforeRun(interceptors, task, taskId);
+        }
+        long timeoutMs = task.timeout();
+        TimeoutAction timeoutAction = null;
+        TimerWheel.Timeout timeout = null;
+        if (timeoutMs != Task.NO_TIMEOUT) {
+            timeoutAction = new TimeoutAction(task);
+            timeout = mTimer.schedule(timeoutAction, timeoutMs);
         }
         try {
             task.run(this);
         } catch (InterruptedException e) {
+            if (hasTimedOut(timeout)) {
+                return onTimedOut(task, taskId, status, startTimeNanos, timeoutMs, timeoutAction, attempt);
+            }
             // The task has been interrupted
+            if (interceptors != null) {
+                interceptAfterRun(interceptors, task, taskId, e);
+            }
             try {
                 task.onCancelled();
             } catch (Exception e1) {
@@ -376,8 +2112,25 @@ public class TaskManager {
                     Log.e(Loom.LOG_TAG, "Error while performing onCancelled(): " + e1.getMessage(), e1);
                 }
             }
-            return;
+            return FAILED;
         } catch (Exception e) {
+            if (hasTimedOut(timeout)) {
+                return onTimedOut(task, taskId, status, startTimeNanos, timeoutMs, timeoutAction, attempt);
+            }
+            boolean retry = shouldRetry(task, taskId, attempt, e);
+            if (metrics != null) {
+                metrics.mRunTime.record(System.nanoTime() - startTimeNanos);
+                if (!retry) {
+                    metrics.mFailed.incrementAndGet();
+                }
+            }
+            if (interceptors != null) {
+                interceptAfterRun(interceptors, task, taskId, e);
+            }
+            if (retry) {
+                return RETRYING;
+            }
+            flushProgress(task);
             FailureEvent failureEvent = task.buildFailureEvent();
             try {
                 if (status != null) {
@@ -390,8 +2143,20 @@ public class TaskManager {
                 }
             }
             postEvent(task, failureEvent);
-            return;
+            return FAILED;
+        }
+        if (hasTimedOut(timeout)) {
+            // The result came too late
+            return onTimedOut(task, taskId, status, startTimeNanos, timeoutMs, timeoutAction, attempt);
+        }
+        if (metrics != null) {
+            metrics.mRunTime.record(System.nanoTime() - startTimeNanos);
+            metrics.mSucceeded.incrementAndGet();
+        }
+        if (interceptors != null) {
+            interceptAfterRun(interceptors, task, taskId, null);
         }
+        flushProgress(task);
         SuccessEvent successEvent = task.buildSuccessEvent();
         try {
             if (status != null) {
@@ -403,6 +2168,33 @@ public class TaskManager {
                 Log.e(Loom.LOG_TAG, "Error while performing onSuccess(): " + e.getMessage(), e);
             }
         }
+        if (mResultCache != null && successEvent != null && !task.isCancelled()) {
+            String cacheKey = task.cacheKey();
+            if (cacheKey != null) {
+                mResultCache.put(cacheKey, successEvent);
+            }
+        }
         postEvent(task, successEvent);
+        return SUCCEEDED;
+    }
+
+    /**
+     * @return whether the Task has attempts left, and has to be retried after failing with the
+     * given error
+     */
+    private boolean shouldRetry(Task task, int taskId, int attempt, Exception error) {
+        RetryPolicy policy = task.retryPolicy();
+        // A task that got cancelled is not current anymore
+        if (policy == null || attempt >= policy.getMaxAttempts() || !isCurrent(taskId)) {
+            return false;
+        }
+        try {
+            return task.shouldRetry(error);
+        } catch (Exception e) {
+            if (mIsLoggingEnabled) {
+                Log.e(Loom.LOG_TAG, "Error while performing shouldRetry(): " + e.getMessage(), e);
+            }
+            return false;
+        }
     }
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics of the Tasks with a given name, updated without locking by the threads executing and
+ * running them.
+ */
+class TaskMetrics {
+    final String mTaskName;
+    final AtomicLong mSubmitted = new AtomicLong();
+    final AtomicLong mStarted = new AtomicLong();
+    final AtomicLong mSucceeded = new AtomicLong();
+    final AtomicLong mFailed = new AtomicLong();
+    final AtomicLong mCancelled = new AtomicLong();
+    final LatencyHistogram mQueueWait = new LatencyHistogram();
+    final LatencyHistogram mRunTime = new LatencyHistogram();
+
+    TaskMetrics(String taskName) {
+        mTaskName = taskName;
+    }
+
+    TaskMetricsSnapshot snapshot() {
+        return new TaskMetricsSnapshot(mTaskName, mSubmitted.get(), mStarted.get(), mSucceeded.get(),
+                mFailed.get(), mCancelled.get(), new TaskMetricsSnapshot.Latency(mQueueWait.getCounts()),
+                new TaskMetricsSnapshot.Latency(mRunTime.getCounts()));
+    }
+}
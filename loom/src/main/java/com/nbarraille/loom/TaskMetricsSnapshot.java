@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+/**
+ * The metrics of the Tasks with a given name, at the time they were retrieved with
+ * {@link TaskManager#getMetrics}. The counters are read one after the other while Tasks keep
+ * running, so they may be off by the few Tasks that changed state in the meantime.
+ */
+public class TaskMetricsSnapshot {
+    private final String mTaskName;
+    private final long mSubmittedCount;
+    private final long mStartedCount;
+    private final long mSucceededCount;
+    private final long mFailedCount;
+    private final long mCancelledCount;
+    private final Latency mQueueWait;
+    private final Latency mRunTime;
+
+    /**
+     * The distribution of a duration, with a precision of 12.5%.
+     */
+    public static class Latency {
+        private final long[] mCounts;
+        private final long mCount;
+
+        Latency(long[] counts) {
+            mCounts = counts;
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            mCount = count;
+        }
+
+        /**
+         * @return the number of durations recorded
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100
+         * @return the duration below which the given percentage of the durations are, in
+         * nanoseconds, or -1 if none has been recorded
+         */
+        public long getPercentileNanos(double percentile) {
+            if (mCount == 0) {
+                return -1;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mCount));
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return LatencyHistogram.upperBoundOf(i);
+                }
+            }
+            return LatencyHistogram.upperBoundOf(mCounts.length - 1);
+        }
+
+        public long getP50Nanos() {
+            return getPercentileNanos(50);
+        }
+
+        public long getP95Nanos() {
+            return getPercentileNanos(95);
+        }
+
+        public long getP99Nanos() {
+            return getPercentileNanos(99);
+        }
+    }
+
+    TaskMetricsSnapshot(String taskName, long submittedCount, long startedCount, long succeededCount,
+                        long failedCount, long cancelledCount, Latency queueWait, Latency runTime) {
+        mTaskName = taskName;
+        mSubmittedCount = submittedCount;
+        mStartedCount = startedCount;
+        mSucceededCount = succeededCount;
+        mFailedCount = failedCount;
+        mCancelledCount = cancelledCount;
+        mQueueWait = queueWait;
+        mRunTime = runTime;
+    }
+
+    /**
+     * @return the name of the Tasks these metrics are for
+     */
+    public String getTaskName() {
+        return mTaskName;
+    }
+
+    /**
+     * @return the number of Tasks executed, including the ones answered from the result cache
+     */
+    public long getSubmittedCount() {
+        return mSubmittedCount;
+    }
+
+    /**
+     * @return the number of Tasks that started running
+     */
+    public long getStartedCount() {
+        return mStartedCount;
+    }
+
+    /**
+     * @return the number of Tasks that succeeded, including the ones answered from the result cache
+     */
+    public long getSucceededCount() {
+        return mSucceededCount;
+    }
+
+    /**
+     * @return the number of Tasks that failed
+     */
+    public long getFailedCount() {
+        return mFailedCount;
+    }
+
+    /**
+     * @return the number of Tasks that were cancelled, before or after starting
+     */
+    public long getCancelledCount() {
+        return mCancelledCount;
+    }
+
+    /**
+     * @return the time the Tasks waited between being executed and starting to run
+     */
+    public Latency getQueueWait() {
+        return mQueueWait;
+    }
+
+    /**
+     * @return the time the Tasks that succeeded or failed ran for
+     */
+    public Latency getRunTime() {
+        return mRunTime;
+    }
+}
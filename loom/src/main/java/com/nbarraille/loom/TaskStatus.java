@@ -24,6 +24,7 @@ import com.nbarraille.loom.listeners.LoomListener;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * Represents the status of a Task in the backlog.
@@ -31,6 +32,14 @@ import java.lang.annotation.RetentionPolicy;
  * This keeps the {@link SuccessEvent} or {@link FailureEvent} object for finished Tasks, so that
  * they can be sent to listeners that missed them using
  * {@link TaskManager#registerListener(LoomListener, int)}.
+ *
+ * A status can only move forward: PENDING to STARTED or CANCELLED, and STARTED to FINISHED or
+ * CANCELLED. FINISHED and CANCELLED are final. Transitions are atomic, and reading a status never
+ * locks.
+ *
+ * It also records when the Task was enqueued, started and finished, as {@link System#nanoTime()}
+ * timestamps, and which attempt of a Task with a {@link RetryPolicy} is running. A Task waiting to
+ * be retried stays STARTED.
  */
 public class TaskStatus {
     @IntDef({PENDING, STARTED, FINISHED, CANCELLED})
@@ -42,37 +51,96 @@ public class TaskStatus {
     public static final int FINISHED = 2;
     public static final int CANCELLED = 3;
 
-    @Status private int mStatus;
-    private SuccessEvent mSuccessEvent;
-    private FailureEvent mFailureEvent;
-
-    TaskStatus() {
+    private static final AtomicIntegerFieldUpdater<TaskStatus> STATUS_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(TaskStatus.class, "mStatus");
+
+    final int mTaskId;
+    @Status private volatile int mStatus;
+    // The events are written before the transition to FINISHED, and only read after it
+    private volatile SuccessEvent mSuccessEvent;
+    private volatile FailureEvent mFailureEvent;
+    private volatile long mEnqueueTimeNanos;
+    private volatile long mStartTimeNanos;
+    private volatile long mFinishTimeNanos;
+    private volatile int mAttempt = 1;
+
+    TaskStatus(int taskId) {
+        mTaskId = taskId;
         mStatus = PENDING;
+        mEnqueueTimeNanos = System.nanoTime();
+    }
+
+    /**
+     * @return whether the Task could move from PENDING to STARTED
+     */
+    boolean setStarted() {
+        if (mStatus != PENDING) {
+            return false;
+        }
+        // The start time is written before the transition, so that it is set once STARTED is seen
+        mStartTimeNanos = System.nanoTime();
+        if (STATUS_UPDATER.compareAndSet(this, PENDING, STARTED)) {
+            return true;
+        }
+        mStartTimeNanos = 0;
+        return false;
+    }
+
+    /**
+     * Resets the enqueue time, when a delayed Task is handed to the Executor.
+     */
+    void setEnqueued() {
+        mEnqueueTimeNanos = System.nanoTime();
     }
 
-    synchronized void setStarted() {
-        mStatus = STARTED;
+    void setAttempt(int attempt) {
+        mAttempt = attempt;
     }
 
-    synchronized void setSuccess(SuccessEvent event) {
+    /**
+     * @return whether the Task could move from STARTED to FINISHED
+     */
+    boolean setSuccess(SuccessEvent event) {
         mSuccessEvent = event;
-        mStatus = FINISHED;
+        if (setFinished(FINISHED)) {
+            return true;
+        }
+        mSuccessEvent = null;
+        return false;
     }
 
-    synchronized void setFailure(FailureEvent event) {
+    /**
+     * @return whether the Task could move from STARTED to FINISHED
+     */
+    boolean setFailure(FailureEvent event) {
         mFailureEvent = event;
-        mStatus = FINISHED;
+        if (setFinished(FINISHED)) {
+            return true;
+        }
+        mFailureEvent = null;
+        return false;
     }
 
-    synchronized void setCancelled() {
-        mStatus = CANCELLED;
+    /**
+     * @return whether the Task could move from PENDING or STARTED to CANCELLED
+     */
+    boolean setCancelled() {
+        return STATUS_UPDATER.compareAndSet(this, PENDING, CANCELLED) || setFinished(CANCELLED);
+    }
+
+    private boolean setFinished(@Status int status) {
+        if (STATUS_UPDATER.compareAndSet(this, STARTED, status)) {
+            mFinishTimeNanos = System.nanoTime();
+            return true;
+        }
+        return false;
     }
 
     /**
      * @return the status of the Task this represent
      */
     @Status
-    public synchronized int getStatus() {
+    public int getStatus() {
         return mStatus;
     }
 
@@ -80,7 +148,7 @@ public class TaskStatus {
      * @return whether or not the Task this represent is PENDING. Pending means that the Task has
      * been scheduled to be executed, but has not been picked up by the <code>Executor</code> yet.
      */
-    public synchronized boolean isPending() {
+    public boolean isPending() {
         return mStatus == PENDING;
     }
 
@@ -88,7 +156,7 @@ public class TaskStatus {
      * @return whether or not the Task this represent is STARTED. Started means that the Task has
      * started running on the <code>Executor</code> and has not finished yet.
      */
-    public synchronized boolean isStarted() {
+    public boolean isStarted() {
         return mStatus == STARTED;
     }
 
@@ -96,7 +164,7 @@ public class TaskStatus {
      * @return whether or not the Task this represent is FINISHED. Finished means that the Task has
      * finished its execution, successfully or not, and has not been cancelled
      */
-    public synchronized boolean isFinished() {
+    public boolean isFinished() {
         return mStatus == FINISHED;
     }
 
@@ -104,7 +172,7 @@ public class TaskStatus {
      * @return whether or not the Task this represent is CANCELLED. Cancelled means that the Task has
      * been cancelled at some point.
      */
-    public synchronized boolean isCancelled() {
+    public boolean isCancelled() {
         return mStatus == CANCELLED;
     }
 
@@ -113,8 +181,8 @@ public class TaskStatus {
      * failed, this will be null.
      */
     @Nullable
-    public synchronized SuccessEvent getSuccessEvent() {
-        return mSuccessEvent;
+    public SuccessEvent getSuccessEvent() {
+        return mStatus == FINISHED ? mSuccessEvent : null;
     }
 
     /**
@@ -122,7 +190,60 @@ public class TaskStatus {
      * succeeded, this will be null.
      */
     @Nullable
-    public synchronized FailureEvent getFailureEvent() {
-        return mFailureEvent;
+    public FailureEvent getFailureEvent() {
+        return mStatus == FINISHED ? mFailureEvent : null;
+    }
+
+    /**
+     * @return the attempt of the Task that is running or waiting to run, or that finished it,
+     * starting at 1
+     * @see Task#retryPolicy()
+     */
+    public int getAttempt() {
+        return mAttempt;
+    }
+
+    /**
+     * @return the time at which the Task was enqueued, in nanoseconds
+     * @see System#nanoTime()
+     */
+    public long getEnqueueTimeNanos() {
+        return mEnqueueTimeNanos;
+    }
+
+    /**
+     * @return the time at which the Task started running, in nanoseconds, or 0 if it has not started
+     * @see System#nanoTime()
+     */
+    public long getStartTimeNanos() {
+        return mStartTimeNanos;
+    }
+
+    /**
+     * @return the time at which the Task finished or got cancelled after starting, in nanoseconds,
+     * or 0 if it has not
+     * @see System#nanoTime()
+     */
+    public long getFinishTimeNanos() {
+        return mFinishTimeNanos;
+    }
+
+    /**
+     * @return the time the Task waited in the queue before starting, in nanoseconds, or -1 if it
+     * has not started
+     */
+    public long getQueueWaitNanos() {
+        long start = mStartTimeNanos;
+        return start != 0 ? start - mEnqueueTimeNanos : -1;
+    }
+
+    /**
+     * @return the time the Task ran for before finishing or getting cancelled, in nanoseconds, or
+     * -1 if it has not started or not finished yet
+     */
+    public long getRunTimeNanos() {
+        long start = mStartTimeNanos;
+        long finish = mFinishTimeNanos;
+        return start != 0 && finish != 0 ? finish - start : -1;
     }
 }
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed wheel timer, running the timeouts of a <code>TaskManager</code> on a single thread.
+ *
+ * The wheel is a ring of buckets, each holding the timeouts expiring on one tick of it, modulo its
+ * size. Scheduling and cancelling a timeout are O(1), and each tick only looks at one bucket, so
+ * that the cost does not grow with the number of timeouts in flight. Timeouts are precise to one
+ * tick.
+ *
+ * The thread is started with the first timeout, and waits without ticking while there is none.
+ * The timeouts run on it, they must not block.
+ */
+class TimerWheel {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int WHEEL_SIZE = 512; // A power of 2
+
+    private final Timeout[] mBuckets = new Timeout[WHEEL_SIZE]; // The heads of the lists of timeouts, guarded by mLock
+    private final Object mLock = new Object();
+    private final long mStartNanos;
+    private final boolean mIsLoggingEnabled;
+    private long mTick = 0; // The last tick processed, guarded by mLock
+    private int mCount = 0; // The number of scheduled timeouts, guarded by mLock
+    @Nullable private Thread mThread; // Guarded by mLock
+
+    /**
+     * A task scheduled to run on the timer thread after a delay. It is in the list of its bucket
+     * until it expires or is cancelled.
+     */
+    class Timeout {
+        private final Runnable mTask;
+        private final long mDeadlineTick;
+        @Nullable private Timeout mPrevious;
+        @Nullable private Timeout mNext;
+        private boolean mIsDone = false; // Whether it has expired or been cancelled, guarded by mLock
+
+        private Timeout(Runnable task, long deadlineTick) {
+            mTask = task;
+            mDeadlineTick = deadlineTick;
+        }
+
+        /**
+         * Cancels the timeout if it has not expired yet.
+         * @return whether it had not expired yet
+         */
+        boolean cancel() {
+            synchronized (mLock) {
+                if (mIsDone) {
+                    return false;
+                }
+                remove(this);
+                return true;
+            }
+        }
+    }
+
+    TimerWheel(boolean loggingEnabled) {
+        mStartNanos = System.nanoTime();
+        mIsLoggingEnabled = loggingEnabled;
+    }
+
+    /**
+     * Schedules a task to run on the timer thread after a delay.
+     * @return the timeout, to cancel it
+     */
+    Timeout schedule(Runnable task, long delayMs) {
+        long nowNanos = System.nanoTime() - mStartNanos;
+        long deadlineNanos = nowNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs));
+        long deadlineTick = (deadlineNanos + TICK_NANOS - 1) / TICK_NANOS;
+        synchronized (mLock) {
+            if (mCount == 0) {
+                // The ticks elapsed while the wheel was empty had nothing to expire
+                mTick = Math.max(mTick, nowNanos / TICK_NANOS);
+            }
+            Timeout timeout = new Timeout(task, Math.max(deadlineTick, mTick + 1));
+            int bucket = (int) (timeout.mDeadlineTick & (WHEEL_SIZE - 1));
+            timeout.mNext = mBuckets[bucket];
+            if (timeout.mNext != null) {
+                timeout.mNext.mPrevious = timeout;
+            }
+            mBuckets[bucket] = timeout;
+            if (mCount++ == 0) {
+                if (mThread == null) {
+                    mThread = new Thread(new Worker(), "Loom timer");
+                    mThread.setDaemon(true);
+                    mThread.start();
+                } else {
+                    mLock.notifyAll();
+                }
+            }
+            return timeout;
+        }
+    }
+
+    /**
+     * Unlinks a timeout from its bucket. Must be called holding mLock.
+     */
+    private void remove(Timeout timeout) {
+        if (timeout.mPrevious != null) {
+            timeout.mPrevious.mNext = timeout.mNext;
+        } else {
+            mBuckets[(int) (timeout.mDeadlineTick & (WHEEL_SIZE - 1))] = timeout.mNext;
+        }
+        if (timeout.mNext != null) {
+            timeout.mNext.mPrevious = timeout.mPrevious;
+        }
+        timeout.mPrevious = null;
+        timeout.mNext = null;
+        timeout.mIsDone = true;
+        mCount--;
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            List<Timeout> expired = new ArrayList<>();
+            while (true) {
+                long nextTickNanos;
+                synchronized (mLock) {
+                    while (mCount == 0) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            // Nobody interrupts this thread, keep waiting
+                        }
+                    }
+                    nextTickNanos = mStartNanos + (mTick + 1) * TICK_NANOS;
+                }
+                long sleepNanos = nextTickNanos - System.nanoTime();
+                if (sleepNanos > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                    } catch (InterruptedException e) {
+                        // Nobody interrupts this thread, carry on
+                    }
+                    continue;
+                }
+                synchronized (mLock) {
+                    mTick++;
+                    Timeout timeout = mBuckets[(int) (mTick & (WHEEL_SIZE - 1))];
+                    while (timeout != null) {
+                        Timeout next = timeout.mNext;
+                        if (timeout.mDeadlineTick <= mTick) {
+                            remove(timeout);
+                            expired.add(timeout);
+                        }
+                        timeout = next;
+                    }
+                }
+                for (Timeout timeout : expired) {
+                    try {
+                        timeout.mTask.run();
+                    } catch (Exception e) {
+                        if (mIsLoggingEnabled) {
+                            Log.e(Loom.LOG_TAG, "Error while running a timeout: " + e.getMessage(), e);
+                        }
+                    }
+                }
+                expired.clear();
+            }
+        }
+    }
+}
@@ -20,4 +20,23 @@ import com.nbarraille.loom.Event;
 /**
  * The base class for a failure event
  */
-public class FailureEvent extends Event {}
+public class FailureEvent extends Event {
+    private boolean mIsTimeout = false;
+
+    /**
+     * Marks this event as sent because the Task timed out. This is done by the
+     * <code>TaskManager</code>.
+     * @param isTimeout whether the Task timed out
+     */
+    public void setTimeout(boolean isTimeout) {
+        mIsTimeout = isTimeout;
+    }
+
+    /**
+     * @return whether the Task failed because it ran for longer than its timeout
+     * @see com.nbarraille.loom.Task#timeout()
+     */
+    public boolean isTimeout() {
+        return mIsTimeout;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom.listeners;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.nbarraille.loom.events.FailureEvent;
+import com.nbarraille.loom.events.ProgressEvent;
+import com.nbarraille.loom.events.SuccessEvent;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The concrete Success, Failure and Progress event classes a typed listener accepts.
+ *
+ * They are resolved once per listener class from its generic superclass, so that dispatching an
+ * event only costs an <code>isInstance</code> check. A type variable left open (by a generic
+ * listener class, or an anonymous class in a generic method) resolves to its first bound. When a
+ * type argument cannot be resolved at all (raw types), the base event class is used.
+ */
+final class EventTypes {
+    private static final ConcurrentMap<Class<?>, EventTypes> sCache = new ConcurrentHashMap<>();
+
+    final Class<?> mSuccessClass;
+    final Class<?> mFailureClass;
+    final Class<?> mProgressClass;
+
+    EventTypes(@NonNull Class<?> successClass, @NonNull Class<?> failureClass,
+               @NonNull Class<?> progressClass) {
+        mSuccessClass = successClass;
+        mFailureClass = failureClass;
+        mProgressClass = progressClass;
+    }
+
+    /**
+     * @param listenerClass the class of the listener
+     * @param baseClass     the generic listener class declaring the Success, Failure and Progress
+     *                      type parameters, in that order
+     * @return the event types of the given listener class
+     */
+    @NonNull
+    static EventTypes of(@NonNull Class<?> listenerClass, @NonNull Class<?> baseClass) {
+        EventTypes types = sCache.get(listenerClass);
+        if (types == null) {
+            types = resolve(listenerClass, baseClass);
+            sCache.putIfAbsent(listenerClass, types);
+        }
+        return types;
+    }
+
+    private static EventTypes resolve(Class<?> listenerClass, Class<?> baseClass) {
+        // Walk up the hierarchy, binding each superclass' type variables to what the subclass declared
+        Map<TypeVariable<?>, Class<?>> bindings = new HashMap<>();
+        Class<?> cls = listenerClass;
+        while (cls != baseClass && cls != null) {
+            Type superType = cls.getGenericSuperclass();
+            Map<TypeVariable<?>, Class<?>> superBindings = new HashMap<>();
+            if (superType instanceof ParameterizedType) {
+                ParameterizedType parameterized = (ParameterizedType) superType;
+                cls = (Class<?>) parameterized.getRawType();
+                TypeVariable<?>[] variables = cls.getTypeParameters();
+                Type[] arguments = parameterized.getActualTypeArguments();
+                for (int i = 0; i < variables.length; i++) {
+                    Class<?> argument = toClass(arguments[i], bindings);
+                    if (argument != null) {
+                        superBindings.put(variables[i], argument);
+                    }
+                }
+            } else {
+                cls = (Class<?>) superType;
+            }
+            bindings = superBindings;
+        }
+
+        TypeVariable<?>[] variables = baseClass.getTypeParameters();
+        return new EventTypes(
+                orDefault(bindings.get(variables[0]), SuccessEvent.class),
+                orDefault(bindings.get(variables[1]), FailureEvent.class),
+                orDefault(bindings.get(variables[2]), ProgressEvent.class));
+    }
+
+    @Nullable
+    private static Class<?> toClass(Type type, Map<TypeVariable<?>, Class<?>> bindings) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        } else if (type instanceof TypeVariable) {
+            Class<?> bound = bindings.get(type);
+            // An open variable accepts anything within its bound, which can be another variable
+            return bound != null ? bound : toClass(((TypeVariable<?>) type).getBounds()[0], bindings);
+        }
+        return null;
+    }
+
+    private static Class<?> orDefault(@Nullable Class<?> cls, Class<?> defaultClass) {
+        return cls != null ? cls : defaultClass;
+    }
+}
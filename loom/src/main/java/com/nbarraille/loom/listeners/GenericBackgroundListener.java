@@ -15,32 +15,30 @@
  */
 package com.nbarraille.loom.listeners;
 
+import android.support.annotation.NonNull;
+
+import com.nbarraille.loom.Event;
 import com.nbarraille.loom.events.FailureEvent;
 import com.nbarraille.loom.events.ProgressEvent;
 import com.nbarraille.loom.events.SuccessEvent;
 
 /**
- * A LoomListener for GreenRobot's EventBus that receives callbacks on the UI Thread
+ * A LoomListener that receives callbacks on the same background thread where the task was running
  */
-public abstract class GenericBackgroundListener implements LoomListener<SuccessEvent, FailureEvent, ProgressEvent> {
-    @SuppressWarnings("unused")
-    public final void onEvent(SuccessEvent event) {
-        if (taskName().equals(event.getTaskName())) {
-            onSuccess(event);
-        }
-    }
-
-    @SuppressWarnings("unused")
-    public final void onEvent(FailureEvent event) {
-        if (taskName().equals(event.getTaskName())) {
-            onFailure(event);
-        }
+public abstract class GenericBackgroundListener implements RoutedListener<SuccessEvent, FailureEvent, ProgressEvent> {
+    @Override
+    public final boolean isUiThreadListener() {
+        return false;
     }
 
-    @SuppressWarnings("unused")
-    public final void onEvent(ProgressEvent event) {
-        if (taskName().equals(event.getTaskName())) {
-            onProgress(event);
+    @Override
+    public final void dispatch(@NonNull Event event) {
+        if (event instanceof SuccessEvent) {
+            onSuccess((SuccessEvent) event);
+        } else if (event instanceof FailureEvent) {
+            onFailure((FailureEvent) event);
+        } else if (event instanceof ProgressEvent) {
+            onProgress((ProgressEvent) event);
         }
     }
 
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom.listeners;
+
+/**
+ * A callback receiving the progress of tasks as a plain value, without any event being allocated.
+ *
+ * A {@link RoutedListener} implementing this interface receives the progress of its task through
+ * {@link #onProgressValue} instead of {@link LoomListener#onProgress}. When none of the listeners of
+ * a task need a {@link com.nbarraille.loom.events.ProgressEvent}, the task does not build any, so
+ * that reporting progress does not allocate anything.
+ *
+ * Listeners running on the UI Thread only receive the latest progress of a task when the UI Thread
+ * gets to it, and can therefore miss intermediate values.
+ */
+public interface ProgressValueListener {
+    /**
+     * Callback getting executed when the progress of the task changes
+     * @param taskId   the ID of the task
+     * @param progress the progress, between 0 and 100
+     */
+    void onProgressValue(int taskId, int progress);
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015 Nathan Barraillé (nathan.barraille@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nbarraille.loom.listeners;
+
+import android.support.annotation.NonNull;
+
+import com.nbarraille.loom.Event;
+
+/**
+ * A LoomListener whose events are routed to it directly by the TaskManager, based on its
+ * {@link #taskName()}, instead of being broadcast to every listener registered on the EventBus.
+ */
+public interface RoutedListener<Success, Failure, Progress> extends LoomListener<Success, Failure, Progress> {
+    /**
+     * @return whether the callbacks of this listener need to be executed on the UI Thread, or on
+     * the same background thread where the task was running
+     */
+    boolean isUiThreadListener();
+
+    /**
+     * Delivers an event sent by a task whose name matches {@link #taskName()} to the right callback.
+     * This will be called on the thread requested by {@link #isUiThreadListener()}.
+     * @param event the event
+     */
+    void dispatch(@NonNull Event event);
+}
@@ -15,45 +15,57 @@
  */
 package com.nbarraille.loom.listeners;
 
+import android.support.annotation.NonNull;
+
+import com.nbarraille.loom.Event;
 import com.nbarraille.loom.events.FailureEvent;
 import com.nbarraille.loom.events.ProgressEvent;
 import com.nbarraille.loom.events.SuccessEvent;
 
 /**
- * A LoomListener for GreenRobot's EventBus that receives callbacks on the UI Thread
+ * A LoomListener that receives callbacks on the UI Thread
  */
 public abstract class UiThreadListener<Success extends SuccessEvent, Failure extends FailureEvent, Progress extends ProgressEvent>
-        implements LoomListener<Success, Failure, Progress> {
-    @SuppressWarnings("unused")
-    public final void onEventMainThread(SuccessEvent event) {
-        if (taskName().equals(event.getTaskName())) {
-            //noinspection EmptyCatchBlock
-            try {
-                //noinspection unchecked
-                onSuccess((Success) event);
-            } catch (ClassCastException e) {}
-        }
+        implements RoutedListener<Success, Failure, Progress> {
+    private final EventTypes mEventTypes;
+
+    /**
+     * Creates a listener receiving the events matching the type arguments of its class.
+     * Type arguments that cannot be resolved, because they are left open by a generic subclass for
+     * example, will match all the events of the base type.
+     */
+    protected UiThreadListener() {
+        mEventTypes = EventTypes.of(getClass(), UiThreadListener.class);
     }
 
-    @SuppressWarnings("unused")
-    public final void onEventMainThread(FailureEvent event) {
-        if (taskName().equals(event.getTaskName())) {
-            //noinspection EmptyCatchBlock
-            try {
-                //noinspection unchecked
-                onFailure((Failure) event);
-            } catch (ClassCastException e) {}
-        }
+    /**
+     * Creates a listener receiving the events of the given types.
+     *
+     * @param successClass  the type of the success events
+     * @param failureClass  the type of the failure events
+     * @param progressClass the type of the progress events
+     */
+    protected UiThreadListener(@NonNull Class<Success> successClass, @NonNull Class<Failure> failureClass,
+                               @NonNull Class<Progress> progressClass) {
+        mEventTypes = new EventTypes(successClass, failureClass, progressClass);
     }
 
-    @SuppressWarnings("unused")
-    public final void onEventMainThread(ProgressEvent event) {
-        if (taskName().equals(event.getTaskName())) {
-            //noinspection EmptyCatchBlock
-            try {
-                //noinspection unchecked
-                onProgress((Progress) event);
-            } catch (ClassCastException e) {}
+    @Override
+    public final boolean isUiThreadListener() {
+        return true;
+    }
+
+    @Override
+    public final void dispatch(@NonNull Event event) {
+        if (mEventTypes.mSuccessClass.isInstance(event)) {
+            //noinspection unchecked
+            onSuccess((Success) event);
+        } else if (mEventTypes.mFailureClass.isInstance(event)) {
+            //noinspection unchecked
+            onFailure((Failure) event);
+        } else if (mEventTypes.mProgressClass.isInstance(event)) {
+            //noinspection unchecked
+            onProgress((Progress) event);
         }
     }
 
@@ -15,13 +15,18 @@
  */
 package com.nbarraille.loom;
 
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.nbarraille.loom.events.FailureEvent;
 import com.nbarraille.loom.events.ProgressEvent;
 import com.nbarraille.loom.events.SuccessEvent;
+import com.nbarraille.loom.listeners.GenericBackgroundListener;
+import com.nbarraille.loom.listeners.LoomListener;
+import com.nbarraille.loom.listeners.ProgressValueListener;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -30,17 +35,35 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricGradleTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(RobolectricGradleTestRunner.class)
 @Config(constants = BuildConfig.class)
@@ -68,6 +91,23 @@ public class LoomTest {
         executor.awaitTermination(TIMEOUT, TimeUnit.SECONDS);
     }
 
+    /**
+     * A utility method that waits for the given tasks to finish, then for the executor to be idle.
+     * Needed when tasks are handed to the executor after others complete, as it cannot be shut
+     * down before.
+     * @throws InterruptedException
+     */
+    private void waitForTasks(int... taskIds) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT);
+        for (int taskId : taskIds) {
+            while (!mTaskManager.getTaskStatus(taskId).isFinished() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(mTaskManager.getTaskStatus(taskId).isFinished());
+        }
+        waitForIdle();
+    }
+
     @Test
     public void testSuccess() throws InterruptedException {
         GenericEventCatcher eventCatcher = new GenericEventCatcher("test1");
@@ -142,6 +182,211 @@ public class LoomTest {
         assertEquals("The listener received progress with a wrong value", 50, progresses.get(1).getProgress());
     }
 
+    @Test
+    public void testCoalescedProgressDropsRepeatedValues() throws InterruptedException {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newSingleThreadExecutor())
+                .setProgressCoalescingEnabled(true).setMinProgressInterval(0).build();
+        GenericEventCatcher eventCatcher = new GenericEventCatcher("test");
+        mTaskManager.registerListener(eventCatcher);
+        mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                postProgress(1);
+                postProgress(1);
+                postProgress(2);
+                postProgress(2);
+            }
+        });
+
+        waitForIdle();
+        mTaskManager.unregisterListener(eventCatcher);
+
+        List<ProgressEvent> progresses = eventCatcher.getReceivedProgresses();
+        assertEquals("The listener received the wrong number of progress events", 2, progresses.size());
+        assertEquals("The listener received progress with a wrong value", 1, progresses.get(0).getProgress());
+        assertEquals("The listener received progress with a wrong value", 2, progresses.get(1).getProgress());
+    }
+
+    @Test
+    public void testCoalescedProgressIsRateLimited() throws InterruptedException {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newSingleThreadExecutor())
+                .setProgressCoalescingEnabled(true).setMinProgressInterval(TIMEOUT * 1000).build();
+        GenericEventCatcher eventCatcher = new GenericEventCatcher("test");
+        mTaskManager.registerListener(eventCatcher);
+        mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                for (int i = 0; i <= 100; i++) {
+                    postProgress(i);
+                }
+            }
+        });
+
+        waitForIdle();
+        mTaskManager.unregisterListener(eventCatcher);
+
+        // The first progress is delivered right away, and the latest one before the task finishes
+        assertNotNull("The listener did not receive a success", eventCatcher.getReceivedSuccess());
+        List<ProgressEvent> progresses = eventCatcher.getReceivedProgresses();
+        assertEquals("The listener received the wrong number of progress events", 2, progresses.size());
+        assertEquals("The listener received progress with a wrong value", 0, progresses.get(0).getProgress());
+        assertEquals("The listener received progress with a wrong value", 100, progresses.get(1).getProgress());
+    }
+
+    /**
+     * A listener receiving progress as values, and counting them
+     */
+    private static class ProgressValueCatcher extends GenericBackgroundListener implements ProgressValueListener {
+        private final String mTaskName;
+        private final AtomicInteger mProgressEvents = new AtomicInteger();
+        private volatile int mProgressValues;
+        private volatile int mLastProgressValue = -1;
+
+        ProgressValueCatcher(String taskName) {
+            mTaskName = taskName;
+        }
+
+        @Override
+        public void onProgress(ProgressEvent event) {
+            mProgressEvents.incrementAndGet();
+        }
+
+        @Override
+        public void onProgressValue(int taskId, int progress) {
+            //noinspection NonAtomicOperationOnVolatileField
+            mProgressValues++;
+            mLastProgressValue = progress;
+        }
+
+        @NonNull
+        @Override
+        public String taskName() {
+            return mTaskName;
+        }
+    }
+
+    @Test
+    public void testCoalescedProgressIsDeliveredAtEndOfInterval() throws InterruptedException {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newFixedThreadPool(2))
+                .setProgressCoalescingEnabled(true).setMinProgressInterval(DURATION_BEFORE_CANCEL).build();
+        final List<Integer> progresses = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latestDelivered = new CountDownLatch(1);
+        mTaskManager.registerListener(new GenericBackgroundListener() {
+            @Override
+            public String taskName() {
+                return "test";
+            }
+
+            @Override
+            public void onProgress(ProgressEvent event) {
+                progresses.add(event.getProgress());
+                if (event.getProgress() == 51) {
+                    latestDelivered.countDown();
+                }
+            }
+        });
+        final AtomicBoolean deliveredWhileBlocked = new AtomicBoolean(false);
+        int taskId = mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                postProgress(50);
+                postProgress(51);
+                // Blocked without posting anything else, as a Task waiting on I/O would be
+                deliveredWhileBlocked.set(latestDelivered.await(TASK_DURATION, TimeUnit.MILLISECONDS));
+            }
+        });
+        waitForTasks(taskId);
+
+        assertTrue("The latest progress was held back until the task finished", deliveredWhileBlocked.get());
+        assertEquals(Arrays.asList(50, 51), progresses);
+    }
+
+    @Test
+    public void testProgressValueListener() throws InterruptedException {
+        ProgressValueCatcher catcher = new ProgressValueCatcher("test");
+        final AtomicInteger builtEvents = new AtomicInteger();
+        mTaskManager.registerListener(catcher);
+        mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                postProgress(1);
+                postProgress(50);
+            }
+
+            @Nullable
+            @Override
+            protected ProgressEvent buildProgressEvent(int progress) {
+                builtEvents.incrementAndGet();
+                return super.buildProgressEvent(progress);
+            }
+        });
+
+        waitForIdle();
+        mTaskManager.unregisterListener(catcher);
+
+        assertEquals("The listener received the wrong number of progress values", 2, catcher.mProgressValues);
+        assertEquals("The listener received progress with a wrong value", 50, catcher.mLastProgressValue);
+        assertEquals("The listener received progress events", 0, catcher.mProgressEvents.get());
+        assertEquals("Progress events were built", 0, builtEvents.get());
+    }
+
+    @Test
+    public void testProgressValuesDoNotAllocate() throws InterruptedException {
+        final java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        final int updates = 100000;
+        final AtomicLong allocatedBytes = new AtomicLong(-1);
+        ProgressValueCatcher catcher = new ProgressValueCatcher("test");
+        mTaskManager.registerListener(catcher);
+        mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+                long threadId = Thread.currentThread().getId();
+                for (int i = 0; i < updates; i++) {
+                    postProgress(i % 101); // Warm up
+                }
+                long before = bean.getThreadAllocatedBytes(threadId);
+                for (int i = 0; i < updates; i++) {
+                    postProgress(i % 101);
+                }
+                allocatedBytes.set(bean.getThreadAllocatedBytes(threadId) - before);
+            }
+        });
+
+        waitForIdle();
+        mTaskManager.unregisterListener(catcher);
+
+        assertEquals("The listener received the wrong number of progress values", 2 * updates, catcher.mProgressValues);
+        assertTrue("Progress updates allocated " + allocatedBytes.get() + " bytes", allocatedBytes.get() >= 0
+                && allocatedBytes.get() < updates);
+    }
+
     @Test
     public void testProgressWithLargeValue() throws Exception {
         Task task = new Task() {
@@ -415,6 +660,92 @@ public class LoomTest {
         assertEquals("The task did not send its custom progress", CustomProgressEvent.class, catcher.getReceivedProgresses().get(0).getClass());
     }
 
+    @Test
+    public void testTypedListenerIgnoresOtherEventTypes() throws Exception {
+        EventCatcher<CustomSuccessEvent, FailureEvent, ProgressEvent> catcher =
+                new EventCatcher<CustomSuccessEvent, FailureEvent, ProgressEvent>("test") {};
+        Task task1 = new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {}
+        };
+        Task task2 = new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {}
+
+            @Nullable
+            @Override
+            protected SuccessEvent buildSuccessEvent() {
+                return new CustomSuccessEvent();
+            }
+        };
+
+        mTaskManager.registerListener(catcher);
+        mTaskManager.execute(task1);
+        mTaskManager.execute(task2);
+        waitForIdle();
+        mTaskManager.unregisterListener(catcher);
+
+        assertNotNull("The listener did not receive the custom success", catcher.getReceivedSuccess());
+        assertEquals("The listener received a success of the wrong type", CustomSuccessEvent.class, catcher.getReceivedSuccess().getClass());
+    }
+
+    /**
+     * A named generic listener, whose success type is only known from the bound of its variable
+     */
+    private static class CustomSuccessCatcher<S extends CustomSuccessEvent> extends EventCatcher<S, FailureEvent, ProgressEvent> {
+        CustomSuccessCatcher(String taskName) {
+            super(taskName);
+        }
+    }
+
+    @Test
+    public void testGenericListenerUsesTypeVariableBound() throws Exception {
+        CustomSuccessCatcher<CustomSuccessEvent> catcher = new CustomSuccessCatcher<>("test");
+        Task task1 = new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {}
+        };
+        Task task2 = new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {}
+
+            @Nullable
+            @Override
+            protected SuccessEvent buildSuccessEvent() {
+                return new CustomSuccessEvent();
+            }
+        };
+
+        mTaskManager.registerListener(catcher);
+        mTaskManager.execute(task1);
+        mTaskManager.execute(task2);
+        waitForIdle();
+        mTaskManager.unregisterListener(catcher);
+
+        assertNotNull("The listener did not receive the custom success", catcher.getReceivedSuccess());
+        assertEquals("The listener received a success of the wrong type", CustomSuccessEvent.class, catcher.getReceivedSuccess().getClass());
+    }
+
     @Test
     public void testOnSuccessCallback() throws Exception {
         final AtomicBoolean wasCalled = new AtomicBoolean(false);
@@ -619,6 +950,85 @@ public class LoomTest {
         waitForIdle();
     }
 
+    @Test
+    public void testListenerOnlyReceivesEventsForItsTask() throws Exception {
+        GenericEventCatcher catcher1 = new GenericEventCatcher("task1");
+        GenericEventCatcher catcher2 = new GenericEventCatcher("task2");
+        mTaskManager.registerListener(catcher1);
+        mTaskManager.registerListener(catcher2);
+        mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "task1";
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                postProgress(10);
+            }
+        });
+
+        waitForIdle();
+        mTaskManager.unregisterListener(catcher1);
+        mTaskManager.unregisterListener(catcher2);
+
+        assertNotNull("The listener did not receive a success", catcher1.getReceivedSuccess());
+        assertEquals("The listener did not receive the progress", 1, catcher1.getReceivedProgresses().size());
+        assertNull("The listener received a success for another task", catcher2.getReceivedSuccess());
+        assertEquals("The listener received progress for another task", 0, catcher2.getReceivedProgresses().size());
+    }
+
+    /**
+     * A listener that is not a RoutedListener, and thus receives its events through the EventBus
+     */
+    public static class BusListener implements LoomListener<SuccessEvent, FailureEvent, ProgressEvent> {
+        private volatile SuccessEvent mReceivedSuccess;
+
+        @SuppressWarnings("unused")
+        public void onEvent(SuccessEvent event) {
+            if (taskName().equals(event.getTaskName())) {
+                onSuccess(event);
+            }
+        }
+
+        @Override
+        public void onSuccess(SuccessEvent event) {
+            mReceivedSuccess = event;
+        }
+
+        @Override
+        public void onFailure(FailureEvent event) {}
+
+        @Override
+        public void onProgress(ProgressEvent event) {}
+
+        @NonNull
+        @Override
+        public String taskName() {
+            return "test";
+        }
+    }
+
+    @Test
+    public void testBusListenerReceivesEvents() throws Exception {
+        BusListener listener = new BusListener();
+        mTaskManager.registerListener(listener);
+        mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {}
+        });
+
+        waitForIdle();
+        mTaskManager.unregisterListener(listener);
+
+        assertNotNull("The listener did not receive a success", listener.mReceivedSuccess);
+    }
+
     @Test
     public void testRegisterNullListener() throws Exception {
         exception.expect(NullPointerException.class);
@@ -733,11 +1143,1416 @@ public class LoomTest {
         assertNotNull("Success was not received", catcher2.getReceivedSuccess());
     }
 
-    @Test
-    public void testMultipleTaskManagers() throws Exception {
-        // On a multi threaded executor, the second task should start before the first one finishes
-        // EventCatcher's implementation will also make sure that listeners won't receive events for
-        // other tasks
+    /**
+     * A task recording the order in which it ran
+     */
+    private static class OrderedTask extends Task {
+        private final List<String> mOrder;
+        private final String mLabel;
+        private final int mPriority;
+        private final long mDeadline;
+
+        OrderedTask(List<String> order, String label, int priority, long deadline) {
+            mOrder = order;
+            mLabel = label;
+            mPriority = priority;
+            mDeadline = deadline;
+        }
+
+        @Override
+        protected String name() {
+            return "test";
+        }
+
+        @Override
+        protected int priority() {
+            return mPriority;
+        }
+
+        @Override
+        protected long deadline() {
+            return mDeadline;
+        }
+
+        @Override
+        protected void runTask() throws Exception {
+            mOrder.add(mLabel);
+        }
+    }
+
+    /**
+     * Executes a task keeping the single thread of the TaskManager busy until the latch is released
+     */
+    private void blockExecutor(final CountDownLatch latch) {
+        mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "blocker";
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                latch.await();
+            }
+        });
+    }
+
+    @Test
+    public void testPriorityScheduling() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newSingleThreadExecutor())
+                .setPrioritySchedulingEnabled(true).build();
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch latch = new CountDownLatch(1);
+        blockExecutor(latch);
+        Thread.sleep(DURATION_BEFORE_CANCEL);
+        mTaskManager.execute(new OrderedTask(order, "low", 0, Task.NO_DEADLINE));
+        mTaskManager.execute(new OrderedTask(order, "high", 10, Task.NO_DEADLINE));
+        mTaskManager.execute(new OrderedTask(order, "low2", 0, Task.NO_DEADLINE));
+        latch.countDown();
+        waitForIdle();
+
+        assertEquals(Arrays.asList("high", "low", "low2"), order);
+    }
+
+    @Test
+    public void testPrioritySchedulingWithRejection() throws Exception {
+        mTaskManager = new TaskManager.Builder().setPrioritySchedulingEnabled(true)
+                .setExecutor(new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<Runnable>(1))).build();
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch latch = new CountDownLatch(1);
+        blockExecutor(latch);
+        Thread.sleep(DURATION_BEFORE_CANCEL);
+        int lowId = mTaskManager.execute(new OrderedTask(order, "low", 0, Task.NO_DEADLINE));
+        OrderedTask high = new OrderedTask(order, "high", 10, Task.NO_DEADLINE);
+        try {
+            mTaskManager.execute(high);
+            fail("The executor did not reject the task");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+        latch.countDown();
+        waitForIdle();
+
+        assertEquals(Collections.singletonList("low"), order);
+        assertNotNull(mTaskManager.getTaskStatus(lowId).getSuccessEvent());
+        assertTrue(mTaskManager.getTaskStatus(high.getId()).isCancelled());
+    }
+
+    @Test
+    public void testPriorityAging() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newSingleThreadExecutor())
+                .setPrioritySchedulingEnabled(true).setPriorityAgingInterval(1).build();
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch latch = new CountDownLatch(1);
+        blockExecutor(latch);
+        Thread.sleep(DURATION_BEFORE_CANCEL);
+        mTaskManager.execute(new OrderedTask(order, "old", 0, Task.NO_DEADLINE));
+        Thread.sleep(DURATION_BEFORE_CANCEL);
+        // The old task has waited for way more than 5 aging intervals
+        mTaskManager.execute(new OrderedTask(order, "new", 5, Task.NO_DEADLINE));
+        latch.countDown();
+        waitForIdle();
+
+        assertEquals(Arrays.asList("old", "new"), order);
+    }
+
+    @Test
+    public void testDeadlineScheduling() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newSingleThreadExecutor())
+                .setDeadlineSchedulingEnabled(true).build();
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch latch = new CountDownLatch(1);
+        blockExecutor(latch);
+        Thread.sleep(DURATION_BEFORE_CANCEL);
+        mTaskManager.execute(new OrderedTask(order, "none", 0, Task.NO_DEADLINE));
+        mTaskManager.execute(new OrderedTask(order, "late", 0, 500));
+        mTaskManager.execute(new OrderedTask(order, "soon", 0, 10));
+        latch.countDown();
+        waitForIdle();
+
+        assertEquals(Arrays.asList("soon", "late", "none"), order);
+    }
+
+    /**
+     * A cancellable task sleeping for TASK_DURATION
+     */
+    private static class SleepingTask extends Task {
+        @Override
+        protected String name() {
+            return "test";
+        }
+
+        @Override
+        protected boolean isCancellable() {
+            return true;
+        }
+
+        @Override
+        protected void runTask() throws Exception {
+            Thread.sleep(TASK_DURATION);
+        }
+    }
+
+    @Test
+    public void testConflictJoin() throws Exception {
+        int firstId = mTaskManager.execute(new SleepingTask(), "key", TaskManager.JOIN);
+        int secondId = mTaskManager.execute(new SleepingTask(), "key", TaskManager.JOIN);
+        int otherId = mTaskManager.execute(new SleepingTask(), "other", TaskManager.JOIN);
+        waitForIdle();
+
+        assertEquals("The task did not join the running one", firstId, secondId);
+        assertTrue("The task with another key joined the running one", otherId != firstId);
+        assertTrue(mTaskManager.getTaskStatus(firstId).isFinished());
+    }
+
+    @Test
+    public void testConflictReject() throws Exception {
+        int firstId = mTaskManager.execute(new SleepingTask(), "key", TaskManager.REJECT);
+        int secondId = mTaskManager.execute(new SleepingTask(), "key", TaskManager.REJECT);
+        waitForIdle();
+
+        assertEquals("The task was not rejected", Task.NO_ID, secondId);
+        assertTrue(mTaskManager.getTaskStatus(firstId).isFinished());
+    }
+
+    @Test
+    public void testConflictReplace() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newFixedThreadPool(2)).build();
+        int firstId = mTaskManager.execute(new SleepingTask(), "key", TaskManager.REPLACE);
+        Thread.sleep(DURATION_BEFORE_CANCEL);
+        int secondId = mTaskManager.execute(new SleepingTask(), "key", TaskManager.REPLACE);
+        waitForIdle();
+
+        assertTrue("The first task was not cancelled", mTaskManager.getTaskStatus(firstId).isCancelled());
+        assertTrue("The second task did not finish", mTaskManager.getTaskStatus(secondId).isFinished());
+    }
+
+    @Test
+    public void testConflictQueue() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newFixedThreadPool(2)).build();
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicBoolean running = new AtomicBoolean(false);
+        final AtomicBoolean overlapped = new AtomicBoolean(false);
+        final CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            final String label = "task" + i;
+            mTaskManager.execute(new Task() {
+                @Override
+                protected String name() {
+                    return "test";
+                }
+
+                @Override
+                protected void runTask() throws Exception {
+                    if (!running.compareAndSet(false, true)) {
+                        overlapped.set(true);
+                    }
+                    Thread.sleep(DURATION_BEFORE_CANCEL);
+                    order.add(label);
+                    running.set(false);
+                    done.countDown();
+                }
+            }, "key", TaskManager.QUEUE);
+        }
+        // Queued tasks are handed to the executor when the previous one finishes, so it cannot be
+        // shut down before they all ran
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        waitForIdle();
+
+        assertFalse("Queued tasks ran concurrently", overlapped.get());
+        assertEquals(Arrays.asList("task0", "task1", "task2"), order);
+    }
+
+    /**
+     * A cancellable task that keeps running for DURATION_BEFORE_CANCEL once cancelled
+     */
+    private static class StubbornTask extends Task {
+        private final List<String> mOrder;
+        private final String mLabel;
+
+        StubbornTask(List<String> order, String label) {
+            mOrder = order;
+            mLabel = label;
+        }
+
+        @Override
+        protected String name() {
+            return "test";
+        }
+
+        @Override
+        protected boolean isCancellable() {
+            return true;
+        }
+
+        @Override
+        protected void runTask() throws Exception {
+            mOrder.add("start " + mLabel);
+            long deadline = System.currentTimeMillis() + DURATION_BEFORE_CANCEL;
+            while (System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(deadline - System.currentTimeMillis());
+                } catch (InterruptedException e) {
+                    // Keeps running
+                }
+            }
+            mOrder.add("end " + mLabel);
+        }
+    }
+
+    @Test
+    public void testConflictQueueAfterCancel() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newFixedThreadPool(2)).build();
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        int firstId = mTaskManager.execute(new StubbornTask(order, "a"), "key", TaskManager.QUEUE);
+        int secondId = mTaskManager.execute(new StubbornTask(order, "b"), "key", TaskManager.QUEUE);
+        Thread.sleep(DURATION_BEFORE_CANCEL / 2);
+        mTaskManager.cancelTask(firstId);
+        int thirdId = mTaskManager.execute(new StubbornTask(order, "c"), "key", TaskManager.QUEUE);
+        waitForTasks(secondId, thirdId);
+
+        assertEquals(Arrays.asList("start a", "end a", "start b", "end b", "start c", "end c"), order);
+    }
+
+    private static class CachedEvent extends SuccessEvent {
+        private final int mRun;
+
+        CachedEvent(int run) {
+            mRun = run;
+        }
+    }
+
+    private static class CachedTask extends Task {
+        private final AtomicInteger mRuns;
+        private volatile int mRun;
+
+        CachedTask(AtomicInteger runs) {
+            mRuns = runs;
+        }
+
+        @Override
+        protected String name() {
+            return "cached";
+        }
+
+        @Override
+        protected String cacheKey() {
+            return "key";
+        }
+
+        @Override
+        protected void runTask() throws Exception {
+            mRun = mRuns.incrementAndGet();
+        }
+
+        @Override
+        protected SuccessEvent buildSuccessEvent() {
+            return new CachedEvent(mRun);
+        }
+    }
+
+    private static class SuccessCatcher extends GenericBackgroundListener {
+        private final List<SuccessEvent> mEvents = Collections.synchronizedList(new ArrayList<SuccessEvent>());
+        private final CountDownLatch mFirstSuccess = new CountDownLatch(1);
+
+        @Override
+        public String taskName() {
+            return "cached";
+        }
+
+        @Override
+        public void onSuccess(SuccessEvent event) {
+            mEvents.add(event);
+            mFirstSuccess.countDown();
+        }
+    }
+
+    @Test
+    public void testCachedResultIsDelivered() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newSingleThreadExecutor())
+                .setResultCacheSize(10).build();
+        SuccessCatcher listener = new SuccessCatcher();
+        mTaskManager.registerListener(listener);
+        AtomicInteger runs = new AtomicInteger();
+        mTaskManager.execute(new CachedTask(runs));
+        assertTrue(listener.mFirstSuccess.await(TIMEOUT, TimeUnit.SECONDS));
+
+        int cachedId = mTaskManager.execute(new CachedTask(runs));
+        int otherCachedId = mTaskManager.execute(new CachedTask(runs));
+        assertEquals("The cached result was not delivered right away", 3, listener.mEvents.size());
+        assertEquals(1, ((CachedEvent) listener.mEvents.get(1)).mRun);
+        assertEquals(1, ((CachedEvent) listener.mEvents.get(2)).mRun);
+        assertNotSame("A cached event was delivered twice", listener.mEvents.get(0), listener.mEvents.get(1));
+        assertNotSame("A cached event was delivered twice", listener.mEvents.get(1), listener.mEvents.get(2));
+        assertTrue(mTaskManager.getTaskStatus(cachedId).isFinished());
+        assertSame(listener.mEvents.get(1), mTaskManager.getTaskStatus(cachedId).getSuccessEvent());
+        assertSame(listener.mEvents.get(2), mTaskManager.getTaskStatus(otherCachedId).getSuccessEvent());
+        waitForIdle();
+        assertEquals("The task ran despite its cached result", 1, runs.get());
+    }
+
+    @Test
+    public void testStaleResultIsRevalidated() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newSingleThreadExecutor())
+                .setResultCacheSize(10).setResultCacheTtl(0).setStaleWhileRevalidateEnabled(true).build();
+        SuccessCatcher listener = new SuccessCatcher();
+        mTaskManager.registerListener(listener);
+        AtomicInteger runs = new AtomicInteger();
+        mTaskManager.execute(new CachedTask(runs));
+        assertTrue(listener.mFirstSuccess.await(TIMEOUT, TimeUnit.SECONDS));
+
+        mTaskManager.execute(new CachedTask(runs));
+        waitForIdle();
+        assertEquals("The stale result was not refreshed", 2, runs.get());
+        assertEquals(3, listener.mEvents.size());
+        assertEquals("The stale result was not delivered first", 1, ((CachedEvent) listener.mEvents.get(1)).mRun);
+        assertNotSame(listener.mEvents.get(0), listener.mEvents.get(1));
+        assertEquals(2, ((CachedEvent) listener.mEvents.get(2)).mRun);
+    }
+
+    private static class GraphCatcher extends GenericBackgroundListener {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile Event mResult;
+
+        @Override
+        public String taskName() {
+            return "graph";
+        }
+
+        @Override
+        public void onSuccess(SuccessEvent event) {
+            mResult = event;
+            mDone.countDown();
+        }
+
+        @Override
+        public void onFailure(FailureEvent event) {
+            mResult = event;
+            mDone.countDown();
+        }
+    }
+
+    @Test
+    public void testTaskGraph() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newFixedThreadPool(2)).build();
+        GraphCatcher listener = new GraphCatcher();
+        mTaskManager.registerListener(listener);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        Task a = new OrderedTask(order, "a", 0, Task.NO_DEADLINE);
+        Task b = new OrderedTask(order, "b", 0, Task.NO_DEADLINE);
+        Task c = new OrderedTask(order, "c", 0, Task.NO_DEADLINE);
+        Task d = new OrderedTask(order, "d", 0, Task.NO_DEADLINE);
+        int graphId = mTaskManager.executeGraph(new TaskGraph("graph").add(a).add(b, a).add(c, a).add(d, b, c));
+
+        assertTrue(listener.mDone.await(TIMEOUT, TimeUnit.SECONDS));
+        assertTrue(listener.mResult instanceof SuccessEvent);
+        assertEquals(4, order.size());
+        assertEquals("a", order.get(0));
+        assertEquals("d", order.get(3));
+        assertTrue(mTaskManager.getTaskStatus(graphId).isFinished());
+        assertTrue(mTaskManager.getTaskStatus(d.getId()).isFinished());
+    }
+
+    @Test
+    public void testTaskGraphFailureCutsOffDependents() throws Exception {
+        GraphCatcher listener = new GraphCatcher();
+        mTaskManager.registerListener(listener);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        Task failing = new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                throw new Exception();
+            }
+        };
+        Task dependent = new OrderedTask(order, "dependent", 0, Task.NO_DEADLINE);
+        int graphId = mTaskManager.executeGraph(new TaskGraph("graph").add(failing).add(dependent, failing));
+
+        assertTrue(listener.mDone.await(TIMEOUT, TimeUnit.SECONDS));
+        waitForIdle();
+        assertTrue(listener.mResult instanceof FailureEvent);
+        assertTrue(mTaskManager.getTaskStatus(graphId).isFinished());
+        assertTrue(mTaskManager.getTaskStatus(dependent.getId()).isCancelled());
+        assertTrue("The dependent task ran", order.isEmpty());
+    }
+
+    @Test
+    public void testTaskGraphWithRejection() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(new ThreadPoolExecutor(1, 1, 0,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(1))).build();
+        GraphCatcher listener = new GraphCatcher();
+        mTaskManager.registerListener(listener);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch latch = new CountDownLatch(1);
+        blockExecutor(latch);
+        Thread.sleep(DURATION_BEFORE_CANCEL);
+        Task a = new OrderedTask(order, "a", 0, Task.NO_DEADLINE);
+        Task b = new OrderedTask(order, "b", 0, Task.NO_DEADLINE);
+        Task c = new OrderedTask(order, "c", 0, Task.NO_DEADLINE);
+        Task d = new OrderedTask(order, "d", 0, Task.NO_DEADLINE);
+        TaskGraph graph = new TaskGraph("graph").add(a).add(b).add(c).add(d, c);
+        try {
+            mTaskManager.executeGraph(graph);
+            fail("The executor did not reject the graph");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+        latch.countDown();
+        waitForIdle();
+
+        assertTrue(listener.mDone.await(TIMEOUT, TimeUnit.SECONDS));
+        assertTrue(listener.mResult instanceof FailureEvent);
+        assertTrue(order.isEmpty());
+        for (Task task : Arrays.asList(a, b, c, d)) {
+            assertTrue(mTaskManager.getTaskStatus(task.getId()).isCancelled());
+        }
+    }
+
+    @Test
+    public void testTaskGraphRejectsUnknownDependency() throws Exception {
+        exception.expect(IllegalArgumentException.class);
+        new TaskGraph("graph").add(new SleepingTask(), new SleepingTask());
+    }
+
+    private static class SquaresTask extends ParallelTask<Integer> {
+        private final int mCount;
+        private final long mDuration;
+        private final AtomicInteger mComputed = new AtomicInteger();
+        private final Set<Thread> mComputeThreads =
+                Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        private volatile int mSum = -1;
+        private volatile boolean mIsCancelled = false;
+
+        SquaresTask(int count, long duration) {
+            mCount = count;
+            mDuration = duration;
+        }
+
+        @Override
+        protected String name() {
+            return "squares";
+        }
+
+        @Override
+        protected boolean isCancellable() {
+            return true;
+        }
+
+        @Override
+        protected int parallelism() {
+            return 2;
+        }
+
+        @NonNull
+        @Override
+        protected List<Subtask<Integer>> fork() {
+            List<Subtask<Integer>> subtasks = new ArrayList<>();
+            for (int i = 0; i < mCount; i++) {
+                final int value = i;
+                subtasks.add(new Subtask<Integer>() {
+                    @Override
+                    protected Integer compute() throws Exception {
+                        mComputeThreads.add(Thread.currentThread());
+                        postProgress(50);
+                        Thread.sleep(mDuration);
+                        mComputed.incrementAndGet();
+                        return value * value;
+                    }
+                });
+            }
+            return subtasks;
+        }
+
+        @Override
+        protected void join(@NonNull List<Integer> results) {
+            int sum = 0;
+            for (int result : results) {
+                sum += result;
+            }
+            mSum = sum;
+        }
+
+        @Override
+        protected void onCancelled() {
+            mIsCancelled = true;
+        }
+    }
+
+    @Test
+    public void testParallelTask() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newFixedThreadPool(2)).build();
+        ProgressValueCatcher listener = new ProgressValueCatcher("squares");
+        mTaskManager.registerListener(listener);
+        SquaresTask task = new SquaresTask(8, 10);
+        int taskId = mTaskManager.execute(task);
+        waitForIdle();
+
+        assertTrue(mTaskManager.getTaskStatus(taskId).isFinished());
+        assertEquals(140, task.mSum);
+        assertEquals(8, task.mComputed.get());
+        assertTrue("The progress of the subtasks was not combined", listener.mProgressValues > 0);
+        assertTrue(listener.mLastProgressValue > 0 && listener.mLastProgressValue < 100);
+    }
+
+    @Test
+    public void testParallelTaskPostsProgressFromItsThread() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newFixedThreadPool(4)).build();
+        final Set<Thread> progressThreads = Collections.synchronizedSet(new HashSet<Thread>());
+        final AtomicReference<Thread> successThread = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        mTaskManager.registerListener(new GenericBackgroundListener() {
+            @Override
+            public String taskName() {
+                return "squares";
+            }
+
+            @Override
+            public void onSuccess(SuccessEvent event) {
+                successThread.set(Thread.currentThread());
+                done.countDown();
+            }
+
+            @Override
+            public void onProgress(ProgressEvent event) {
+                progressThreads.add(Thread.currentThread());
+            }
+        });
+        SquaresTask task = new SquaresTask(16, 10) {
+            @Override
+            protected int parallelism() {
+                return 4;
+            }
+        };
+        mTaskManager.execute(task);
+        // Shutting the executor down before the Task ends would reject its helpers
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        waitForIdle();
+
+        assertTrue("The subtasks did not run on helpers", task.mComputeThreads.size() > 1);
+        assertFalse("The progress of the subtasks was not sent", progressThreads.isEmpty());
+        assertEquals("The progress was sent from helper threads",
+                Collections.singleton(successThread.get()), progressThreads);
+    }
+
+    @Test
+    public void testCancelledParallelTaskStopsSubtasks() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newFixedThreadPool(2)).build();
+        SquaresTask task = new SquaresTask(4, TASK_DURATION);
+        int taskId = mTaskManager.execute(task);
+        Thread.sleep(DURATION_BEFORE_CANCEL);
+        mTaskManager.cancelTask(taskId);
+        waitForIdle();
+
+        assertTrue(mTaskManager.getTaskStatus(taskId).isCancelled());
+        assertTrue("The task was not notified of its cancellation", task.mIsCancelled);
+        assertEquals("The subtasks were not interrupted", 0, task.mComputed.get());
+        assertEquals(-1, task.mSum);
+    }
+
+    @Test
+    public void testVirtualThreadExecutor() throws Exception {
+        mTaskManager = new TaskManager.Builder().setVirtualThreadsEnabled(true).build();
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        int taskId = mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                thread.set(Thread.currentThread());
+            }
+        });
+        SleepingTask cancelled = new SleepingTask();
+        int cancelledId = mTaskManager.execute(cancelled);
+        Thread.sleep(DURATION_BEFORE_CANCEL);
+        mTaskManager.cancelTask(cancelledId);
+        waitForIdle();
+
+        assertTrue(mTaskManager.getTaskStatus(taskId).isFinished());
+        assertTrue(mTaskManager.getTaskStatus(cancelledId).isCancelled());
+        boolean isVirtual = false;
+        try {
+            isVirtual = (Boolean) Thread.class.getMethod("isVirtual").invoke(thread.get());
+        } catch (NoSuchMethodException e) {
+            // Virtual threads are not available on this runtime
+        }
+        assertEquals("The pool was not used as fallback",
+                !isVirtual, mTaskManager.getExecutor() instanceof ThreadPoolExecutor);
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newSingleThreadExecutor())
+                .setMetricsEnabled(true).build();
+        mTaskManager.execute(new SleepingTask());
+        int cancelledId = mTaskManager.execute(new SleepingTask());
+        mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "failing";
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                throw new Exception();
+            }
+        });
+        mTaskManager.cancelTask(cancelledId);
+        waitForIdle();
+
+        TaskMetricsSnapshot metrics = mTaskManager.getMetrics("test");
+        assertEquals(2, metrics.getSubmittedCount());
+        assertEquals(1, metrics.getStartedCount());
+        assertEquals(1, metrics.getSucceededCount());
+        assertEquals(0, metrics.getFailedCount());
+        assertEquals(1, metrics.getCancelledCount());
+        assertEquals(1, metrics.getQueueWait().getCount());
+        assertEquals(1, metrics.getRunTime().getCount());
+        long runTime = metrics.getRunTime().getP50Nanos();
+        assertTrue("Wrong run time: " + runTime, runTime >= TimeUnit.MILLISECONDS.toNanos(TASK_DURATION));
+        assertTrue("Wrong run time: " + runTime, runTime < TimeUnit.MILLISECONDS.toNanos(TASK_DURATION) * 2);
+        assertEquals(runTime, metrics.getRunTime().getP99Nanos());
+
+        TaskMetricsSnapshot failing = mTaskManager.getMetrics().get("failing");
+        assertEquals(1, failing.getSubmittedCount());
+        assertEquals(1, failing.getFailedCount());
+        assertEquals(0, failing.getSucceededCount());
+        assertEquals(2, mTaskManager.getMetrics().size());
+    }
+
+    @Test
+    public void testMetricsDisabledByDefault() throws Exception {
+        mTaskManager.execute(new SleepingTask());
+        waitForIdle();
+
+        assertTrue(mTaskManager.getMetrics().isEmpty());
+        assertNull(mTaskManager.getMetrics("test"));
+    }
+
+    private static class RecordingInterceptor extends TaskInterceptor {
+        private final List<String> mCalls;
+        private final String mLabel;
+
+        RecordingInterceptor(List<String> calls, String label) {
+            mCalls = calls;
+            mLabel = label;
+        }
+
+        @Override
+        public void beforeRun(@NonNull Task task, @NonNull String taskName, int taskId) {
+            mCalls.add(mLabel + ".beforeRun " + taskName);
+        }
+
+        @Override
+        public void onError(@NonNull Task task, @NonNull String taskName, int taskId, @NonNull Exception error) {
+            mCalls.add(mLabel + ".onError " + taskName);
+        }
+
+        @Override
+        public void afterRun(@NonNull Task task, @NonNull String taskName, int taskId) {
+            mCalls.add(mLabel + ".afterRun " + taskName);
+        }
+
+        @Override
+        public void beforePost(@NonNull Event event) {
+            mCalls.add(mLabel + ".beforePost " + event.getClass().getSimpleName());
+        }
+    }
+
+    @Test
+    public void testInterceptors() throws Exception {
+        List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newSingleThreadExecutor())
+                .addInterceptor(new RecordingInterceptor(calls, "a"))
+                .addInterceptor(new TaskInterceptor() {
+                    @Override
+                    public void beforeRun(@NonNull Task task, @NonNull String taskName, int taskId) {
+                        throw new RuntimeException("Interceptors cannot break tasks");
+                    }
+                })
+                .addInterceptor(new RecordingInterceptor(calls, "b")).build();
+        int successId = mTaskManager.execute(new OrderedTask(new ArrayList<String>(), "", 0, Task.NO_DEADLINE));
+        mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "failing";
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                throw new Exception();
+            }
+        });
+        waitForIdle();
+
+        assertTrue(mTaskManager.getTaskStatus(successId).isFinished());
+        assertEquals(Arrays.asList(
+                "a.beforeRun test", "b.beforeRun test", "b.afterRun test", "a.afterRun test",
+                "a.beforePost SuccessEvent", "b.beforePost SuccessEvent",
+                "a.beforeRun failing", "b.beforeRun failing", "b.onError failing", "b.afterRun failing",
+                "a.onError failing", "a.afterRun failing",
+                "a.beforePost FailureEvent", "b.beforePost FailureEvent"), calls);
+    }
+
+    @Test
+    public void testBackPressureFailFast() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newSingleThreadExecutor())
+                .setMaxPendingTasks(1, TaskManager.FAIL_FAST).build();
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch latch = new CountDownLatch(1);
+        blockExecutor(latch);
+        Thread.sleep(DURATION_BEFORE_CANCEL);
+        int pendingId = mTaskManager.execute(new OrderedTask(order, "pending", 0, Task.NO_DEADLINE));
+        int failedId = mTaskManager.execute(new OrderedTask(order, "failed", 0, Task.NO_DEADLINE));
+
+        assertNotNull("The task did not fail right away", mTaskManager.getTaskStatus(failedId).getFailureEvent());
+        latch.countDown();
+        waitForIdle();
+
+        assertEquals(Collections.singletonList("pending"), order);
+        assertTrue(mTaskManager.getTaskStatus(pendingId).isFinished());
+    }
+
+    @Test
+    public void testBackPressureDropOldest() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newSingleThreadExecutor())
+                .setMaxPendingTasks(1, TaskManager.DROP_OLDEST).build();
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch latch = new CountDownLatch(1);
+        blockExecutor(latch);
+        Thread.sleep(DURATION_BEFORE_CANCEL);
+        int droppedId = mTaskManager.execute(new OrderedTask(order, "dropped", 0, Task.NO_DEADLINE));
+        int newId = mTaskManager.execute(new OrderedTask(order, "new", 0, Task.NO_DEADLINE));
+
+        assertTrue(mTaskManager.getTaskStatus(droppedId).isCancelled());
+        latch.countDown();
+        waitForIdle();
+
+        assertEquals(Collections.singletonList("new"), order);
+        assertTrue(mTaskManager.getTaskStatus(newId).isFinished());
+    }
+
+    @Test
+    public void testBackPressureRunOnCaller() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newSingleThreadExecutor())
+                .setMaxPendingTasks(1, TaskManager.RUN_ON_CALLER).build();
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch latch = new CountDownLatch(1);
+        blockExecutor(latch);
+        Thread.sleep(DURATION_BEFORE_CANCEL);
+        mTaskManager.execute(new OrderedTask(order, "pending", 0, Task.NO_DEADLINE));
+        int callerId = mTaskManager.execute(new OrderedTask(order, "caller", 0, Task.NO_DEADLINE));
+
+        assertEquals("The task did not run on the caller", Collections.singletonList("caller"), order);
+        assertTrue(mTaskManager.getTaskStatus(callerId).isFinished());
+        latch.countDown();
+        waitForIdle();
+
+        assertEquals(Arrays.asList("caller", "pending"), order);
+    }
+
+    @Test
+    public void testBackPressureRunOnCallerReleasesKey() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newSingleThreadExecutor())
+                .setMaxPendingTasks(1, TaskManager.RUN_ON_CALLER).build();
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch latch = new CountDownLatch(1);
+        blockExecutor(latch);
+        Thread.sleep(DURATION_BEFORE_CANCEL);
+        mTaskManager.execute(new OrderedTask(order, "pending", 0, Task.NO_DEADLINE));
+        final AtomicBoolean blockedOtherCaller = new AtomicBoolean(true);
+        mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                Thread otherCaller = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mTaskManager.execute(new SleepingTask(), "key", TaskManager.REJECT);
+                    }
+                });
+                otherCaller.start();
+                otherCaller.join(DURATION_BEFORE_CANCEL);
+                blockedOtherCaller.set(otherCaller.isAlive());
+            }
+        }, "key", TaskManager.QUEUE);
+        latch.countDown();
+        waitForIdle();
+
+        assertFalse("The task ran on the caller holding the lock of its key", blockedOtherCaller.get());
+    }
+
+    @Test
+    public void testRejectedTaskIsCleanedUp() throws Exception {
+        ((ExecutorService) mTaskManager.getExecutor()).shutdown();
+        SleepingTask task = new SleepingTask();
+        try {
+            mTaskManager.execute(task);
+            fail("The executor did not reject the task");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+
+        assertTrue(mTaskManager.getTaskStatus(task.getId()).isCancelled());
+    }
+
+    /**
+     * A task recording the maximum number of instances running at once
+     */
+    private static class ConcurrencyTask extends Task {
+        private final AtomicInteger mRunning;
+        private final AtomicInteger mMaxRunning;
+
+        ConcurrencyTask(AtomicInteger running, AtomicInteger maxRunning) {
+            mRunning = running;
+            mMaxRunning = maxRunning;
+        }
+
+        @Override
+        protected String name() {
+            return "limited";
+        }
+
+        @Override
+        protected void runTask() throws Exception {
+            int running = mRunning.incrementAndGet();
+            while (true) {
+                int max = mMaxRunning.get();
+                if (running <= max || mMaxRunning.compareAndSet(max, running)) {
+                    break;
+                }
+            }
+            Thread.sleep(DURATION_BEFORE_CANCEL);
+            mRunning.decrementAndGet();
+        }
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newFixedThreadPool(4))
+                .setMaxConcurrentTasks("limited", 2).build();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        int[] ids = new int[6];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = mTaskManager.execute(new ConcurrencyTask(running, maxRunning));
+        }
+        final CountDownLatch otherRan = new CountDownLatch(1);
+        mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "other";
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                otherRan.countDown();
+            }
+        });
+
+        assertTrue("The other task waited for the limited ones",
+                otherRan.await(DURATION_BEFORE_CANCEL, TimeUnit.MILLISECONDS));
+        waitForTasks(ids);
+
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void testInvalidConcurrencyLimit() throws Exception {
+        exception.expect(IllegalArgumentException.class);
+        new TaskManager.Builder().setMaxConcurrentTasks("test", 0).build();
+    }
+
+    /**
+     * A task running in a lane, recording the order in which it ran and whether another task of
+     * its lane was running at the same time
+     */
+    private static class LaneTask extends Task {
+        private final String mLane;
+        private final List<String> mOrder;
+        private final AtomicInteger mRunning;
+        private final AtomicBoolean mOverlapped;
+
+        LaneTask(String lane, List<String> order, AtomicInteger running, AtomicBoolean overlapped) {
+            mLane = lane;
+            mOrder = order;
+            mRunning = running;
+            mOverlapped = overlapped;
+        }
+
+        @Override
+        protected String name() {
+            return "test";
+        }
+
+        @Override
+        protected String laneKey() {
+            return mLane;
+        }
+
+        @Override
+        protected void runTask() throws Exception {
+            if (mRunning.incrementAndGet() > 1) {
+                mOverlapped.set(true);
+            }
+            mOrder.add(mLane + getId());
+            Thread.sleep(20);
+            mRunning.decrementAndGet();
+        }
+    }
+
+    @Test
+    public void testSerialLanes() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(Executors.newFixedThreadPool(4)).build();
+        List<String> orderA = Collections.synchronizedList(new ArrayList<String>());
+        List<String> orderB = Collections.synchronizedList(new ArrayList<String>());
+        AtomicInteger runningA = new AtomicInteger();
+        AtomicInteger runningB = new AtomicInteger();
+        AtomicBoolean overlapped = new AtomicBoolean(false);
+        List<String> expectedA = new ArrayList<>();
+        int[] ids = new int[10];
+        for (int i = 0; i < ids.length; i += 2) {
+            ids[i] = mTaskManager.execute(new LaneTask("a", orderA, runningA, overlapped));
+            expectedA.add("a" + ids[i]);
+            ids[i + 1] = mTaskManager.execute(new LaneTask("b", orderB, runningB, overlapped));
+        }
+        Thread.sleep(50);
+
+        assertTrue("The lanes did not run in parallel", orderA.size() > 0 && orderB.size() > 0);
+        waitForTasks(ids);
+
+        assertFalse("Two tasks of the same lane ran at once", overlapped.get());
+        assertEquals(expectedA, orderA);
+        assertEquals(5, orderB.size());
+    }
+
+    @Test
+    public void testAdaptivePool() throws Exception {
+        mTaskManager = new TaskManager.Builder().setAdaptivePoolEnabled(true)
+                .setAdaptivePoolSize(1, 8).setAdaptivePoolIdleTimeout(100).build();
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) mTaskManager.getExecutor();
+        final CountDownLatch done = new CountDownLatch(40);
+        for (int i = 0; i < 40; i++) {
+            mTaskManager.execute(new Task() {
+                @Override
+                protected String name() {
+                    return "test";
+                }
+
+                @Override
+                protected void runTask() throws Exception {
+                    Thread.sleep(50);
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+
+        assertTrue("The pool did not grow for the blocked tasks", executor.getLargestPoolSize() > 1);
+        Thread.sleep(500);
+        assertEquals("The pool did not shrink once idle", 1, executor.getPoolSize());
+        waitForIdle();
+    }
+
+    /**
+     * A task sleeping for the given duration, with a timeout
+     */
+    private static class TimeoutTask extends Task {
+        private final long mDuration;
+        private final long mTimeout;
+        private final AtomicBoolean mCancelled = new AtomicBoolean(false);
+
+        TimeoutTask(long duration, long timeout) {
+            mDuration = duration;
+            mTimeout = timeout;
+        }
+
+        @Override
+        protected String name() {
+            return "test";
+        }
+
+        @Override
+        protected long timeout() {
+            return mTimeout;
+        }
+
+        @Override
+        protected void runTask() throws Exception {
+            Thread.sleep(mDuration);
+        }
+
+        @Override
+        protected void onCancelled() {
+            mCancelled.set(true);
+        }
+    }
+
+    @Test
+    public void testAdaptivePoolGrowsWithoutNewTasks() throws Exception {
+        mTaskManager = new TaskManager.Builder().setAdaptivePoolEnabled(true)
+                .setAdaptivePoolSize(1, 2).build();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicBoolean released = new AtomicBoolean(false);
+        // The first task blocks the only worker until the second one runs
+        int blockedId = mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                released.set(latch.await(TIMEOUT, TimeUnit.SECONDS));
+            }
+        });
+        int releasingId = mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                latch.countDown();
+            }
+        });
+        waitForTasks(blockedId, releasingId);
+
+        assertTrue("The queued task starved", released.get());
+    }
+
+    @Test
+    public void testTaskTimeout() throws Exception {
+        GenericEventCatcher eventCatcher = new GenericEventCatcher("test");
+        mTaskManager.registerListener(eventCatcher);
+        TimeoutTask task = new TimeoutTask(TimeUnit.SECONDS.toMillis(TIMEOUT), DURATION_BEFORE_CANCEL);
+        long startTime = System.currentTimeMillis();
+        int taskId = mTaskManager.execute(task);
+        waitForIdle();
+
+        assertTrue("The task was not interrupted", System.currentTimeMillis() - startTime < TASK_DURATION * 3);
+        assertTrue(task.mCancelled.get());
+        assertNotNull("Failure was not received", eventCatcher.getReceivedFailure());
+        assertTrue(eventCatcher.getReceivedFailure().isTimeout());
+        assertSame(eventCatcher.getReceivedFailure(), mTaskManager.getTaskStatus(taskId).getFailureEvent());
+    }
+
+    @Test
+    public void testTimeoutDoesNotInterruptNextTask() throws Exception {
+        // The timed out task ignores its interruption, the next task on the same thread must not get it
+        final AtomicBoolean interrupted = new AtomicBoolean(false);
+        int timedOutId = mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected long timeout() {
+                return DURATION_BEFORE_CANCEL;
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                long end = System.currentTimeMillis() + DURATION_BEFORE_CANCEL * 2;
+                while (System.currentTimeMillis() < end) {
+                    Thread.yield();
+                }
+            }
+        });
+        int nextId = mTaskManager.execute(new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {
+                try {
+                    Thread.sleep(DURATION_BEFORE_CANCEL);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                    throw e;
+                }
+            }
+        });
+        waitForIdle();
+
+        assertTrue(mTaskManager.getTaskStatus(timedOutId).getFailureEvent().isTimeout());
+        assertFalse("The next task was interrupted", interrupted.get());
+        assertNotNull(mTaskManager.getTaskStatus(nextId).getSuccessEvent());
+    }
+
+    @Test
+    public void testTaskWithinTimeout() throws Exception {
+        GenericEventCatcher eventCatcher = new GenericEventCatcher("test");
+        mTaskManager.registerListener(eventCatcher);
+        TimeoutTask task = new TimeoutTask(DURATION_BEFORE_CANCEL, TASK_DURATION);
+        mTaskManager.execute(task);
+        waitForIdle();
+
+        assertNotNull("Success was not received", eventCatcher.getReceivedSuccess());
+        assertNull(eventCatcher.getReceivedFailure());
+        assertFalse(task.mCancelled.get());
+    }
+
+    private static class RetryTask extends Task {
+        private final int mFailures;
+        private final boolean mRetryable;
+        private final AtomicInteger mRuns = new AtomicInteger(0);
+        private final AtomicReference<Exception> mError = new AtomicReference<>();
+        private final RetryPolicy mRetryPolicy = new RetryPolicy(3).setBackoff(10, 50);
+
+        RetryTask(int failures, boolean retryable) {
+            mFailures = failures;
+            mRetryable = retryable;
+        }
+
+        @Override
+        protected String name() {
+            return "test";
+        }
+
+        @Override
+        protected RetryPolicy retryPolicy() {
+            return mRetryPolicy;
+        }
+
+        @Override
+        protected boolean shouldRetry(Exception error) {
+            return mRetryable;
+        }
+
+        @Override
+        protected void runTask() throws Exception {
+            if (mRuns.incrementAndGet() <= mFailures) {
+                throw new IllegalStateException("Attempt " + mRuns.get());
+            }
+        }
+
+        @Override
+        protected void onFailure(Exception error) {
+            mError.set(error);
+        }
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        GenericEventCatcher eventCatcher = new GenericEventCatcher("test");
+        mTaskManager.registerListener(eventCatcher);
+        RetryTask task = new RetryTask(2, true);
+        int taskId = mTaskManager.execute(task);
+        waitForTasks(taskId);
+        waitForIdle();
+
+        assertEquals(3, task.mRuns.get());
+        assertEquals(3, mTaskManager.getTaskStatus(taskId).getAttempt());
+        assertNotNull(mTaskManager.getTaskStatus(taskId).getSuccessEvent());
+        assertNotNull("Success was not received", eventCatcher.getReceivedSuccess());
+        assertNull(eventCatcher.getReceivedFailure());
+    }
+
+    @Test
+    public void testRetryExhausted() throws Exception {
+        GenericEventCatcher eventCatcher = new GenericEventCatcher("test");
+        mTaskManager.registerListener(eventCatcher);
+        RetryTask task = new RetryTask(5, true);
+        int taskId = mTaskManager.execute(task);
+        waitForTasks(taskId);
+        waitForIdle();
+
+        assertEquals(3, task.mRuns.get());
+        assertEquals(3, mTaskManager.getTaskStatus(taskId).getAttempt());
+        assertNotNull("Failure was not received", eventCatcher.getReceivedFailure());
+        assertEquals("Attempt 3", task.mError.get().getMessage());
+        assertNull(eventCatcher.getReceivedSuccess());
+    }
+
+    @Test
+    public void testRetryNotRetryable() throws Exception {
+        GenericEventCatcher eventCatcher = new GenericEventCatcher("test");
+        mTaskManager.registerListener(eventCatcher);
+        RetryTask task = new RetryTask(5, false);
+        int taskId = mTaskManager.execute(task);
+        waitForTasks(taskId);
+        waitForIdle();
+
+        assertEquals(1, task.mRuns.get());
+        assertEquals(1, mTaskManager.getTaskStatus(taskId).getAttempt());
+        assertNotNull("Failure was not received", eventCatcher.getReceivedFailure());
+    }
+
+    private static class PeriodicTask extends Task {
+        private final long mDuration;
+        private final List<Integer> mRunIds = Collections.synchronizedList(new ArrayList<Integer>());
+        private final AtomicInteger mRunning = new AtomicInteger(0);
+        private final AtomicBoolean mOverlapped = new AtomicBoolean(false);
+
+        PeriodicTask(long duration) {
+            mDuration = duration;
+        }
+
+        @Override
+        protected boolean isCancellable() {
+            return true;
+        }
+
+        @Override
+        protected String name() {
+            return "test";
+        }
+
+        @Override
+        protected void runTask() throws Exception {
+            if (mRunning.incrementAndGet() > 1) {
+                mOverlapped.set(true);
+            }
+            mRunIds.add(getId());
+            try {
+                Thread.sleep(mDuration);
+            } finally {
+                mRunning.decrementAndGet();
+            }
+        }
+    }
+
+    @Test
+    public void testExecuteDelayed() throws Exception {
+        GenericEventCatcher eventCatcher = new GenericEventCatcher("test");
+        mTaskManager.registerListener(eventCatcher);
+        PeriodicTask task = new PeriodicTask(0);
+        long startTime = System.currentTimeMillis();
+        int taskId = mTaskManager.executeDelayed(task, DURATION_BEFORE_CANCEL);
+        assertTrue(mTaskManager.getTaskStatus(taskId).isPending());
+        waitForTasks(taskId);
+        waitForIdle();
+
+        assertTrue("The task ran too early", System.currentTimeMillis() - startTime >= DURATION_BEFORE_CANCEL);
+        assertEquals(Collections.singletonList(taskId), task.mRunIds);
+        assertNotNull("Success was not received", eventCatcher.getReceivedSuccess());
+    }
+
+    @Test
+    public void testCancelDelayed() throws Exception {
+        PeriodicTask task = new PeriodicTask(0);
+        int taskId = mTaskManager.executeDelayed(task, DURATION_BEFORE_CANCEL);
+        mTaskManager.cancelTask(taskId);
+        Thread.sleep(DURATION_BEFORE_CANCEL * 2);
+        waitForIdle();
+
+        assertTrue(mTaskManager.getTaskStatus(taskId).isCancelled());
+        assertTrue(task.mRunIds.isEmpty());
+    }
+
+    @Test
+    public void testCannotCancelNonCancellableDelayedTask() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        int taskId = mTaskManager.executeDelayed(new OrderedTask(order, "delayed", 0, Task.NO_DEADLINE),
+                DURATION_BEFORE_CANCEL);
+        try {
+            mTaskManager.cancelTask(taskId);
+            fail("The task was cancelled");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        waitForTasks(taskId);
+
+        assertEquals(Collections.singletonList("delayed"), order);
+        assertNotNull(mTaskManager.getTaskStatus(taskId).getSuccessEvent());
+    }
+
+    @Test
+    public void testCancelDelayedReleasesTask() throws Exception {
+        PeriodicTask task = new PeriodicTask(0);
+        int taskId = mTaskManager.executeDelayed(task, TimeUnit.HOURS.toMillis(1));
+        mTaskManager.cancelTask(taskId);
+        WeakReference<Task> ref = new WeakReference<Task>(task);
+        //noinspection UnusedAssignment
+        task = null;
+        for (int i = 0; i < 20 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull("The cancelled task is still held by the timer", ref.get());
+        assertTrue(mTaskManager.getTaskStatus(taskId).isCancelled());
+    }
+
+    @Test
+    public void testPeriodicFixedRate() throws Exception {
+        // Each run lasts longer than the period, so the runs falling meanwhile are skipped
+        PeriodicTask task = new PeriodicTask(50);
+        int periodicId = mTaskManager.executePeriodic(task, 0, 20, TaskManager.FIXED_RATE);
+        Thread.sleep(500);
+        mTaskManager.cancelTask(periodicId);
+        assertTrue(mTaskManager.getTaskStatus(periodicId).isCancelled());
+        Thread.sleep(100);
+        int runs = task.mRunIds.size();
+        Thread.sleep(100);
+        waitForIdle();
+
+        assertEquals("A run started after the cancellation", runs, task.mRunIds.size());
+        assertTrue("Too few runs: " + runs, runs >= 3);
+        assertTrue("Runs were not skipped: " + runs, runs <= 12);
+        assertFalse("Two runs overlapped", task.mOverlapped.get());
+        Set<Integer> runIds = new HashSet<>(task.mRunIds);
+        assertEquals(runs, runIds.size());
+        for (int runId : runIds) {
+            assertTrue(runId != periodicId);
+            // The run in progress is cancelled with the series
+            TaskStatus status = mTaskManager.getTaskStatus(runId);
+            assertTrue(status.isFinished() || status.isCancelled());
+        }
+    }
+
+    @Test
+    public void testPeriodicFixedDelay() throws Exception {
+        PeriodicTask task = new PeriodicTask(20);
+        int periodicId = mTaskManager.executePeriodic(task, 0, 30, TaskManager.FIXED_DELAY);
+        Thread.sleep(500);
+        mTaskManager.cancelTask(periodicId);
+        Thread.sleep(100);
+        int runs = task.mRunIds.size();
+        Thread.sleep(100);
+        waitForIdle();
+
+        assertEquals("A run started after the cancellation", runs, task.mRunIds.size());
+        // Each run and the delay after it take 50ms
+        assertTrue("Unexpected number of runs: " + runs, runs >= 4 && runs <= 10);
+        assertFalse("Two runs overlapped", task.mOverlapped.get());
+    }
+
+    @Test
+    public void testExecuteAllAfterPeriodic() throws Exception {
+        PeriodicTask task = new PeriodicTask(0);
+        int periodicId = mTaskManager.executePeriodic(task, 0, TimeUnit.SECONDS.toMillis(TIMEOUT),
+                TaskManager.FIXED_DELAY);
+        Thread.sleep(DURATION_BEFORE_CANCEL);
+        mTaskManager.cancelTask(periodicId);
+        int[] ids = mTaskManager.executeAll(Collections.singletonList(task));
+
+        assertNull("The task is still bound to the periodic series", task.mPeriodic);
+        waitForTasks(ids);
+        assertEquals(2, task.mRunIds.size());
+    }
+
+    @Test
+    public void testMultipleTaskManagers() throws Exception {
+        // On a multi threaded executor, the second task should start before the first one finishes
+        // EventCatcher's implementation will also make sure that listeners won't receive events for
+        // other tasks
         EventCatcher catcher1 = new EventCatcher("task");
         EventCatcher catcher2 = new EventCatcher("task");
         final Task task1 = new Task() {
@@ -781,6 +2596,58 @@ public class LoomTest {
         assertNotNull("Success was not received", catcher2.getReceivedSuccess());
     }
 
+    @Test
+    public void testConcurrentExecuteAndCancel() throws Exception {
+        final int threads = 8;
+        final int tasksPerThread = 500;
+        final TaskManager tm = new TaskManager.Builder().setExecutor(Executors.newFixedThreadPool(threads)).build();
+        final List<Task> tasks = Collections.synchronizedList(new ArrayList<Task>());
+        final AtomicInteger errors = new AtomicInteger();
+        ExecutorService submitters = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            submitters.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < tasksPerThread; j++) {
+                            Task task = new Task() {
+                                @Override
+                                protected String name() {
+                                    return "test";
+                                }
+
+                                @Override
+                                protected boolean isCancellable() {
+                                    return true;
+                                }
+
+                                @Override
+                                protected void runTask() throws Exception {}
+                            };
+                            tasks.add(task);
+                            tm.execute(task);
+                            if (j % 100 == 0) {
+                                tm.cancelTasks("test");
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+        }
+        submitters.shutdown();
+        assertTrue(submitters.awaitTermination(TIMEOUT, TimeUnit.SECONDS));
+        ((ExecutorService) tm.getExecutor()).shutdown();
+        assertTrue(((ExecutorService) tm.getExecutor()).awaitTermination(TIMEOUT, TimeUnit.SECONDS));
+
+        assertEquals("Submitting or cancelling tasks failed", 0, errors.get());
+        assertEquals(threads * tasksPerThread, tasks.size());
+        for (Task task : tasks) {
+            assertTrue("A task neither finished nor got cancelled", task.isFinished() || task.isCancelled());
+        }
+    }
+
     @Test
     public void testStickyRegisterListenerGetsSuccess() throws Exception {
         EventCatcher catcher = new EventCatcher("test");
@@ -963,6 +2830,90 @@ public class LoomTest {
         assertNotNull(status2.getFailureEvent());
     }
 
+    @Test
+    public void testSequentialTaskIds() throws Exception {
+        Task task = new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {}
+        };
+
+        assertEquals("The task has an ID before being executed", Task.NO_ID, task.getId());
+        int firstId = mTaskManager.execute(task);
+        assertEquals("The task does not have the ID it was executed with", firstId, task.getId());
+        waitForIdle();
+
+        // Executing the same task again gives it a new ID
+        TaskManager tm = new TaskManager.Builder().setExecutor(Executors.newSingleThreadExecutor()).build();
+        int secondId = tm.execute(task);
+        int thirdId = tm.execute(new Task() {
+            @Override
+            protected String name() {
+                return "test";
+            }
+
+            @Override
+            protected void runTask() throws Exception {}
+        });
+        assertEquals(secondId + 1, thirdId);
+        assertEquals(secondId, task.getId());
+        assertNotNull(mTaskManager.getTaskStatus(firstId));
+    }
+
+    @Test
+    public void testExecuteAll() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        int[] ids = mTaskManager.executeAll(Arrays.asList(new OrderedTask(order, "a", 0, Task.NO_DEADLINE),
+                new OrderedTask(order, "b", 0, Task.NO_DEADLINE), new OrderedTask(order, "c", 0, Task.NO_DEADLINE)));
+        waitForIdle();
+
+        assertEquals(3, ids.length);
+        assertEquals(ids[0] + 1, ids[1]);
+        assertEquals(ids[1] + 1, ids[2]);
+        assertEquals(Arrays.asList("a", "b", "c"), order);
+        for (int id : ids) {
+            assertTrue(mTaskManager.getTaskStatus(id).isFinished());
+        }
+        assertEquals(0, mTaskManager.executeAll(Collections.<Task>emptyList()).length);
+    }
+
+    @Test
+    public void testExecuteAllWithRejection() throws Exception {
+        mTaskManager = new TaskManager.Builder().setExecutor(new ThreadPoolExecutor(1, 1, 0,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(1))).build();
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch latch = new CountDownLatch(1);
+        blockExecutor(latch);
+        Thread.sleep(DURATION_BEFORE_CANCEL);
+        List<OrderedTask> tasks = Arrays.asList(new OrderedTask(order, "a", 0, Task.NO_DEADLINE),
+                new OrderedTask(order, "b", 0, Task.NO_DEADLINE), new OrderedTask(order, "c", 0, Task.NO_DEADLINE),
+                new OrderedTask(order, "d", 0, Task.NO_DEADLINE));
+        try {
+            mTaskManager.executeAll(tasks);
+            fail("The executor did not reject the tasks");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+        latch.countDown();
+        waitForIdle();
+
+        assertEquals(Collections.singletonList("a"), order);
+        assertNotNull(mTaskManager.getTaskStatus(tasks.get(0).getId()).getSuccessEvent());
+        for (OrderedTask task : tasks.subList(1, tasks.size())) {
+            assertTrue(mTaskManager.getTaskStatus(task.getId()).isCancelled());
+        }
+    }
+
+    @Test
+    public void testExecuteAllWithNullTask() throws Exception {
+        exception.expect(NullPointerException.class);
+        mTaskManager.executeAll(Arrays.asList(new SleepingTask(), null));
+    }
+
     @Test
     public void testCancelledTaskStatus() throws Exception {
         Task task = new Task() {
@@ -995,6 +2946,39 @@ public class LoomTest {
         assertNull(status.getFailureEvent());
     }
 
+    @Test
+    public void testTaskStatusTransitions() throws Exception {
+        TaskStatus status = new TaskStatus(1);
+        assertTrue(status.isPending());
+        assertEquals(-1, status.getQueueWaitNanos());
+        assertEquals(-1, status.getRunTimeNanos());
+
+        assertFalse("A pending task cannot finish", status.setSuccess(new SuccessEvent()));
+        assertTrue(status.setStarted());
+        assertFalse("A started task cannot start again", status.setStarted());
+        assertTrue(status.setCancelled());
+        assertFalse("A cancelled task cannot succeed", status.setSuccess(new SuccessEvent()));
+        assertFalse("A cancelled task cannot fail", status.setFailure(new FailureEvent()));
+        assertTrue(status.isCancelled());
+        assertNull(status.getSuccessEvent());
+        assertNull(status.getFailureEvent());
+
+        assertTrue(status.getStartTimeNanos() >= status.getEnqueueTimeNanos());
+        assertTrue(status.getFinishTimeNanos() >= status.getStartTimeNanos());
+        assertTrue(status.getQueueWaitNanos() >= 0);
+        assertTrue(status.getRunTimeNanos() >= 0);
+    }
+
+    @Test
+    public void testFinishedTaskCannotBeCancelled() throws Exception {
+        TaskStatus status = new TaskStatus(1);
+        assertTrue(status.setStarted());
+        assertTrue(status.setSuccess(new SuccessEvent()));
+        assertFalse(status.setCancelled());
+        assertTrue(status.isFinished());
+        assertNotNull(status.getSuccessEvent());
+    }
+
     @Test
     public void testBacklogSize() throws Exception {
         TaskManager tm = new TaskManager.Builder().setMaxBacklogSize(1).build();
@@ -1028,6 +3012,48 @@ public class LoomTest {
         assertNotNull(tm.getTaskStatus(task2.getId()));
     }
 
+    @Test
+    public void testRingBufferBacklog() throws Exception {
+        TaskManager tm = new TaskManager.Builder().setMaxBacklogSize(2)
+                .setRingBufferBacklogEnabled(true).build();
+        int[] ids = new int[3];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = tm.execute(new Task() {
+                @Override
+                protected String name() {
+                    return "test";
+                }
+
+                @Override
+                protected void runTask() throws Exception {
+                    Thread.sleep(TASK_DURATION);
+                }
+            });
+        }
+
+        assertNull(tm.getTaskStatus(ids[0]));
+        assertNotNull(tm.getTaskStatus(ids[1]));
+        assertNotNull(tm.getTaskStatus(ids[2]));
+        assertNull(tm.getTaskStatus(Task.NO_ID));
+    }
+
+    @Test
+    public void testRingBufferBacklogKeepsNewerTask() throws Exception {
+        Backlog backlog = Backlog.create(2, true);
+        backlog.put(new TaskStatus(3));
+        // Stored late by a thread that took its ID before the other one
+        backlog.put(new TaskStatus(1));
+
+        assertNotNull(backlog.get(3));
+        assertNull(backlog.get(1));
+    }
+
+    @Test
+    public void testInvalidRingBufferBacklogSize() throws Exception {
+        exception.expect(IllegalArgumentException.class);
+        new TaskManager.Builder().setRingBufferBacklogEnabled(true).setMaxBacklogSize(0).build();
+    }
+
     @Test
     public void testInvalidBacklogSize() throws Exception {
         exception.expect(IllegalArgumentException.class);